@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.engine.ProjectionPlan;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionClientException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles the header of a file and maps parsed rows to claims. The rows are held in memory, so that only the
+ * mapping is measured, and mapRows reports the mapped rows/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ClaimMappingBenchmark {
+
+    private static final int NO_OF_ROWS = 10000;
+
+    /**
+     * Parsed rows and the configurations of the claims.
+     */
+    @State(Scope.Benchmark)
+    public static class Rows {
+
+        ConfigurationsDTO configs;
+        ProjectionPlan projectionPlan;
+        String[][] rows = new String[NO_OF_ROWS][];
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException, BulkUserProvisionClientException {
+
+            DataSets.setUpCarbonHome();
+            configs = DataSets.getConfigurations(1, NO_OF_ROWS);
+            projectionPlan = ProjectionPlan.compile(DataSets.HEADER, configs, "benchmark.csv");
+            for (int i = 0; i < NO_OF_ROWS; i++) {
+                rows[i] = DataSets.getRow(i);
+            }
+        }
+    }
+
+    @Benchmark
+    public ProjectionPlan compileHeader(Rows rows) throws BulkUserProvisionClientException {
+
+        return ProjectionPlan.compile(DataSets.HEADER, rows.configs, "benchmark.csv");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NO_OF_ROWS)
+    public void mapRows(Rows rows, Blackhole blackhole) {
+
+        ProjectionPlan projectionPlan = rows.projectionPlan;
+        for (String[] row : rows.rows) {
+            blackhole.consume(ProjectionPlan.getValue(row, projectionPlan.getUsernameColumnIndex()));
+            blackhole.consume(projectionPlan.getClaims(row));
+        }
+    }
+}
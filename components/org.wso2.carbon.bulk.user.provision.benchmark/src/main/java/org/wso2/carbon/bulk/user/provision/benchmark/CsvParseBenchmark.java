@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.benchmark;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.engine.CsvRecordReader;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a generated data set with the CSVReader setup of the opencsv parser, and with the CSV record reader
+ * decoding either all the columns or only the username and password columns. The rows counter reports the parsed
+ * rows/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class CsvParseBenchmark {
+
+    /**
+     * Generated data set.
+     */
+    @State(Scope.Benchmark)
+    public static class DataSet {
+
+        @Param({"10000", "1000000", "10000000"})
+        public int rows;
+
+        Path csvFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+
+            DataSets.setUpCarbonHome();
+            csvFile = DataSets.getDataSet(rows);
+        }
+    }
+
+    /**
+     * Rows parsed during the iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rows {
+
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+
+            rows = 0;
+        }
+    }
+
+    @Benchmark
+    public void parse(DataSet dataSet, Rows rows, Blackhole blackhole) throws IOException {
+
+        CSVReader csvReader = new CSVReader(new BufferedReader(new InputStreamReader(
+                new FileInputStream(dataSet.csvFile.toFile()), StandardCharsets.UTF_8)), Constants.COMMA,
+                Constants.DOUBLE_QUOTE, 0);
+        try {
+            String[] line;
+            while ((line = csvReader.readNext()) != null) {
+                blackhole.consume(line);
+                rows.rows++;
+            }
+        } finally {
+            csvReader.close();
+        }
+    }
+
+    @Benchmark
+    public void parseRecordReader(DataSet dataSet, Rows rows, Blackhole blackhole) throws IOException {
+
+        try (CsvRecordReader csvReader = CsvRecordReader.open(dataSet.csvFile)) {
+            String[] line;
+            while ((line = csvReader.readNext()) != null) {
+                blackhole.consume(line);
+                rows.rows++;
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseRecordReaderProjected(DataSet dataSet, Rows rows, Blackhole blackhole) throws IOException {
+
+        try (CsvRecordReader csvReader = CsvRecordReader.open(dataSet.csvFile)) {
+            csvReader.setProjection(new boolean[]{true, true});
+            String[] line;
+            while ((line = csvReader.readNext()) != null) {
+                blackhole.consume(line);
+                rows.rows++;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.benchmark;
+
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generated CSV data sets of the benchmarks. A data set is written once to the temp folder and reused by later
+ * runs, as writing the 10M rows data set takes longer than benchmarking it.
+ */
+public class DataSets {
+
+    public static final String[] HEADER = {"username", "password", "email", "givenname", "lastname", "mobile",
+            "country"};
+    public static final int SUPER_TENANT_ID = -1234;
+
+    private static final String DATA_SET_DIR = "bulk-user-provision-benchmark";
+    private static final String[] COUNTRIES = {"Sri Lanka", "United States", "United Kingdom", "Germany", "India"};
+
+    private DataSets() {
+
+    }
+
+    /**
+     * Get the CSV file of a data set, generating it if it doesn't exist yet.
+     *
+     * @param noOfRows Number of user rows of the data set, without the header.
+     * @return Path of the CSV file.
+     * @throws IOException If the data set could not be written.
+     */
+    public static Path getDataSet(int noOfRows) throws IOException {
+
+        Path dataSetDir = getDataSetDir();
+        Path dataSet = dataSetDir.resolve("users-" + noOfRows + Constants.FILE_TYPE_CSV);
+        if (Files.exists(dataSet)) {
+            return dataSet;
+        }
+        Files.createDirectories(dataSetDir);
+        Path tempFile = Files.createTempFile(dataSetDir, "users-" + noOfRows, ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(String.join(",", HEADER));
+            writer.newLine();
+            for (int i = 0; i < noOfRows; i++) {
+                writer.write(String.join(",", getRow(i)));
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, dataSet, StandardCopyOption.ATOMIC_MOVE);
+        return dataSet;
+    }
+
+    /**
+     * @param index Index of the row.
+     * @return Generated user row, in the order of the header.
+     */
+    public static String[] getRow(int index) {
+
+        return new String[]{"user" + index, "Password_" + index, "user" + index + "@example.com", "Given" + index,
+                "Last" + index, String.format("+9477%07d", index % 10000000), COUNTRIES[index % COUNTRIES.length]};
+    }
+
+    /**
+     * @return Configurations of a job provisioning the generated data sets, without roles, checkpoints or user
+     * store lookups.
+     */
+    public static ConfigurationsDTO getConfigurations(int threadPoolSize, int noOfRowsFetch) {
+
+        ConfigurationsDTO configs = new ConfigurationsDTO();
+        configs.setEnabled(true);
+        configs.setPrimaryUserStore(true);
+        configs.setTenantDomain(Constants.DEFAULT_TENANT_DOMAIN);
+        configs.setUsernameField(Constants.DEFAULT_USERNAME_FIELD);
+        configs.setPasswordField(Constants.DEFAULT_PASSWORD_FIELD);
+        configs.setRoleFieldExist(false);
+        configs.setThreadPoolSize(threadPoolSize);
+        configs.setNoOfRowsFetch(noOfRowsFetch);
+        configs.setCheckpointEnabled(false);
+        configs.setCsvParser(Constants.CSV_PARSER_NIO);
+        configs.setExistingUserCheckEnabled(false);
+        configs.setExistingUserAction(Constants.DEFAULT_EXISTING_USER_ACTION);
+        configs.setDuplicateUsernamePolicy(Constants.DUPLICATE_USERNAME_POLICY_NONE);
+        configs.setRoleSeparator(Constants.DEFAULT_ROLE_SEPARATOR);
+
+        Map<String, String> claims = new HashMap<>();
+        claims.put("email", "http://wso2.org/claims/emailaddress");
+        claims.put("givenname", "http://wso2.org/claims/givenname");
+        claims.put("lastname", "http://wso2.org/claims/lastname");
+        claims.put("mobile", "http://wso2.org/claims/mobile");
+        claims.put("country", "http://wso2.org/claims/country");
+        configs.setClaims(claims);
+        return configs;
+    }
+
+    /**
+     * Point carbon.home to the data set folder when running outside a server, so that the paths of the bulk user
+     * provision constants resolve.
+     */
+    public static void setUpCarbonHome() throws IOException {
+
+        if (System.getProperty("carbon.home") == null) {
+            Files.createDirectories(getDataSetDir());
+            System.setProperty("carbon.home", getDataSetDir().toString());
+        }
+    }
+
+    private static Path getDataSetDir() {
+
+        return Paths.get(System.getProperty("java.io.tmpdir"), DATA_SET_DIR);
+    }
+}
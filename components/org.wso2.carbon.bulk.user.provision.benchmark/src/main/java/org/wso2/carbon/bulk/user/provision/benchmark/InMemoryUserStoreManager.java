@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.benchmark;
+
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.common.User;
+import org.wso2.carbon.user.core.jdbc.UniqueIDJDBCUserStoreManager;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stub of the JDBC user store manager which only counts the added users, so that the provisioning benchmark
+ * measures the import pipeline and not a database. A latency can be simulated for each added user.
+ */
+public class InMemoryUserStoreManager extends UniqueIDJDBCUserStoreManager {
+
+    private final long latencyNanos;
+    private final LongAdder userCount = new LongAdder();
+
+    public InMemoryUserStoreManager(long latencyMicros) {
+
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    @Override
+    public User doAddUserWithID(String userName, Object credential, String[] roleList, Map<String, String> claims,
+                                String profileName, boolean requirePasswordChange) throws UserStoreException {
+
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        userCount.increment();
+        return new User(UUID.randomUUID().toString(), userName, userName);
+    }
+
+    @Override
+    public boolean isExistingUser(String userName) throws UserStoreException {
+
+        return false;
+    }
+
+    public long getUserCount() {
+
+        return userCount.sum();
+    }
+}
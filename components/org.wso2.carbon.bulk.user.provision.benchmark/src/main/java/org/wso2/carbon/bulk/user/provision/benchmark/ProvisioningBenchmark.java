@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.engine.CsvFileProvisionTask;
+import org.wso2.carbon.bulk.user.provision.csv.engine.ProvisioningEngine;
+import org.wso2.carbon.bulk.user.provision.csv.metrics.BulkUserProvisionMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provisions a generated data set end to end, from reading the CSV file to adding the users, through the
+ * provisioning engine against an in-memory user store. The users counter reports the added users/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ProvisioningBenchmark {
+
+    /**
+     * Generated data set and the configurations of the job.
+     */
+    @State(Scope.Benchmark)
+    public static class Job {
+
+        @Param({"10000", "1000000", "10000000"})
+        public int rows;
+
+        @Param({"4"})
+        public int threadPoolSize;
+
+        @Param({"100"})
+        public int noOfRowsFetch;
+
+        // Simulated latency of adding a user to the user store.
+        @Param({"0"})
+        public long userStoreLatencyMicros;
+
+        File csvFile;
+        ConfigurationsDTO configs;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+
+            DataSets.setUpCarbonHome();
+            csvFile = DataSets.getDataSet(rows).toFile();
+            configs = DataSets.getConfigurations(threadPoolSize, noOfRowsFetch);
+        }
+    }
+
+    /**
+     * Users added during the iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Users {
+
+        public long users;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+
+            users = 0;
+        }
+    }
+
+    @Benchmark
+    public long provision(Job job, Users users) throws Exception {
+
+        InMemoryUserStoreManager userStoreManager = new InMemoryUserStoreManager(job.userStoreLatencyMicros);
+        ProvisioningEngine engine = new ProvisioningEngine(job.configs, userStoreManager, DataSets.SUPER_TENANT_ID,
+                new BulkUserProvisionMetrics());
+        new CsvFileProvisionTask(engine, job.csvFile, 0, job.noOfRowsFetch).call();
+        engine.awaitCompletion();
+        users.users += engine.getUsersAdded();
+        return userStoreManager.getUserCount();
+    }
+}
@@ -18,9 +18,88 @@
 
 package org.wso2.carbon.bulk.user.provision.csv;
 
+import org.wso2.carbon.bulk.user.provision.csv.dto.JobStatusDTO;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionClientException;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionException;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
 /**
- * BulkUserProvisionService Interface.
+ * BulkUserProvisionService Interface. Jobs are run one after the other, in the order they are submitted.
  */
 public interface BulkUserProvisionService {
 
+    /**
+     * Submit a job provisioning a CSV file, or all the CSV files of a folder. Gzip compressed CSV files ending with
+     * .csv.gz are decompressed while they are read.
+     *
+     * @param csvPath       Path of a CSV file or of a folder of CSV files.
+     * @param jobProperties Configs of the job, with the same keys as the bulk user provision config file. Configs
+     *                      which are not given are taken from the config file. Can be null.
+     * @return ID of the job.
+     * @throws BulkUserProvisionException If the files are not found or a config is invalid.
+     */
+    String submitJob(Path csvPath, Properties jobProperties) throws BulkUserProvisionException;
+
+    /**
+     * Submit a job provisioning a CSV stream. The stream is copied before this method returns, and is not closed.
+     *
+     * @param csvStream     CSV content.
+     * @param fileName      Name of the CSV file, used in logs and in the name of the rejects file.
+     * @param jobProperties Configs of the job, with the same keys as the bulk user provision config file. Configs
+     *                      which are not given are taken from the config file. Can be null.
+     * @return ID of the job.
+     * @throws BulkUserProvisionException If the stream could not be copied or a config is invalid.
+     */
+    String submitJob(InputStream csvStream, String fileName, Properties jobProperties)
+            throws BulkUserProvisionException;
+
+    /**
+     * @param jobId ID of the job.
+     * @return Progress of the job.
+     * @throws BulkUserProvisionClientException If the job is not found.
+     */
+    JobStatusDTO getJobStatus(String jobId) throws BulkUserProvisionClientException;
+
+    /**
+     * @return Progress of the jobs which are queued, running or recently finished.
+     */
+    List<JobStatusDTO> getJobs();
+
+    /**
+     * Pause a job. The CSV files are not read further, while the rows which are already read are provisioned.
+     *
+     * @param jobId ID of the job.
+     * @throws BulkUserProvisionClientException If the job is not found.
+     */
+    void pauseJob(String jobId) throws BulkUserProvisionClientException;
+
+    /**
+     * Resume a paused job.
+     *
+     * @param jobId ID of the job.
+     * @throws BulkUserProvisionClientException If the job is not found.
+     */
+    void resumeJob(String jobId) throws BulkUserProvisionClientException;
+
+    /**
+     * Cancel a queued or running job. The rows committed before the cancellation are kept in the progress journal.
+     *
+     * @param jobId ID of the job.
+     * @throws BulkUserProvisionClientException If the job is not found.
+     */
+    void cancelJob(String jobId) throws BulkUserProvisionClientException;
+
+    /**
+     * Change the maximum users provisioned per second by a queued or running job, across all of its workers.
+     *
+     * @param jobId          ID of the job.
+     * @param usersPerSecond Maximum users provisioned per second, or zero for no limit.
+     * @param burst          Users provisioned without waiting after an idle period. At least one.
+     * @throws BulkUserProvisionClientException If the job is not found or the rate limit is invalid.
+     */
+    void setJobRateLimit(String jobId, double usersPerSecond, int burst) throws BulkUserProvisionClientException;
 }
@@ -18,46 +18,57 @@
 
 package org.wso2.carbon.bulk.user.provision.csv;
 
-import au.com.bytecode.opencsv.CSVReader;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.dto.JobStatusDTO;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionClientException;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionException;
 import org.wso2.carbon.bulk.user.provision.csv.internal.BulkUserProvisionDataHolder;
+import org.wso2.carbon.bulk.user.provision.csv.job.BulkUserProvisionJob;
 import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
-import org.wso2.carbon.context.PrivilegedCarbonContext;
-import org.wso2.carbon.user.core.UserStoreException;
-import org.wso2.carbon.user.core.jdbc.UniqueIDJDBCUserStoreManager;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
- * BulkUserProvisionService implementation.
+ * BulkUserProvisionService implementation. Jobs are queued to a single job thread, as each job already spreads its
+ * rows across its own pool of threadPoolSize workers, and the jobs share the progress journal.
  */
-public class BulkUserProvisionServiceImpl implements BulkUserProvisionService, Callable<Boolean> {
+public class BulkUserProvisionServiceImpl implements BulkUserProvisionService {
 
     private static final Log log = LogFactory.getLog(BulkUserProvisionServiceImpl.class);
 
-    // Take all the csv files in the directory.
-    private File[] files = null;
-    private ArrayList<String[]> columnNames = new ArrayList<>();
-    private Map<Integer, Map<String, Integer>> fileIndexToSpecialColumns = new LinkedHashMap<>();
-    private LinkedHashMap<Integer, LinkedHashSet<String[]>> fileIndexToUserHashMap = new LinkedHashMap<>();
-    private LinkedHashSet<String[]> userSet = null;
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "BulkUserProvisionJob");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    private UniqueIDJDBCUserStoreManager uniqueIDJDBCUserStoreManager;
+    // Guarded by this. Jobs in the order they are submitted.
+    private final Map<String, BulkUserProvisionJob> jobs = new LinkedHashMap<>();
+    private final Map<String, Future<Boolean>> jobResults = new LinkedHashMap<>();
+    // Guarded by this. Jobs which are kept until they are released, however many jobs finish after them.
+    private final Set<String> retainedJobs = new HashSet<>();
 
     public BulkUserProvisionServiceImpl() {
 
@@ -65,217 +76,214 @@ public class BulkUserProvisionServiceImpl implements BulkUserProvisionService, C
     }
 
     @Override
-    public Boolean call() throws Exception {
-
-        // Get csv Files.
-        this.files = Utils.getCsvFiles();
-        // Get user store manager.
-        this.uniqueIDJDBCUserStoreManager = (UniqueIDJDBCUserStoreManager) Utils.getUserStoreManager();
-        // Start time to provision bulk users.
-        long startingTimeProvisioningBulkUsers = System.currentTimeMillis();
-
-        if (this.uniqueIDJDBCUserStoreManager != null) {
-
-            InputStream targetStream = null;
-            BufferedReader bufferedReader = null;
-            CSVReader csvReader = null;
-
-            try {
-                log.info(String.format("%s Starting reading from files and checking columns",
-                        Constants.BULK_USER_PROVISION_LOG_PREFIX));
-
-                // To store mandatory fields like username, password and role.
-                Map<String, Integer> mandatoryFields = new HashMap<>();
-                for (int file = 0; file < files.length; file++) {
-                    log.info(
-                            String.format("%s Started column check for the CSV file: %s, file order: %s",
-                                    Constants.BULK_USER_PROVISION, files[file].getAbsolutePath(), file));
-                    log.info(String.format("%s Started reading from file: %s, file order: %s",
-                            Constants.BULK_USER_PROVISION, files[file].getAbsolutePath(), file));
-
-                    targetStream = new FileInputStream(files[file]);
-                    bufferedReader = new BufferedReader(new InputStreamReader(targetStream, StandardCharsets.UTF_8));
-                    csvReader = new CSVReader(bufferedReader, Constants.COMMA, Constants.DOUBLE_QUOTE, 0);
-
-                    String[] line = csvReader.readNext();
-                    this.columnNames.add(line);
-
-                    boolean usernameFieldFound = false;
-                    boolean passwordFieldFound = false;
-                    boolean roleFieldFound = false;
-
-                    for (int j = 0; j < line.length; j++) {
-                        if (StringUtils.equals(line[j], BulkUserProvisionDataHolder.getConfigs().getUsernameField())) {
-                            if (usernameFieldFound) {
-                                log.error(String.format("%s Field %s: %s duplicated in the CSV.Task Aborted",
-                                        Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                        BulkUserProvisionDataHolder.getConfigs().getUsernameField(), line[j]));
-                                return false;
-                            }
-                            log.info(String.format("%s Field %s: %s found in the CSV.",
-                                    Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                    BulkUserProvisionDataHolder.getConfigs().getUsernameField(), line[j]));
-                            mandatoryFields.put(BulkUserProvisionDataHolder.getConfigs().getUsernameField(), j);
-                            usernameFieldFound = true;
-                        } else if (StringUtils.equals(line[j],
-                                BulkUserProvisionDataHolder.getConfigs().getPasswordField())) {
-                            if (passwordFieldFound) {
-                                log.error(String.format("%s Field %s: %s duplicated in the CSV.Task Aborted",
-                                        Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                        BulkUserProvisionDataHolder.getConfigs().getPasswordField(), line[j]));
-                                return false;
-                            }
-                            log.info(String.format("%s Field %s: %s found in the CSV.",
-                                    Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                    BulkUserProvisionDataHolder.getConfigs().getUsernameField(), line[j]));
-                            mandatoryFields.put(BulkUserProvisionDataHolder.getConfigs().getPasswordField(), j);
-                            passwordFieldFound = true;
-                        }
-                        if (BulkUserProvisionDataHolder.getConfigs().isRoleFieldExist()) {
-                            if (StringUtils.equals(line[j], BulkUserProvisionDataHolder.getConfigs().getRoleField())) {
-                                log.info(String.format("%s Field %s: %s found in the CSV.",
-                                        Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                        BulkUserProvisionDataHolder.getConfigs().getRoleField(), line[j]));
-                                if (roleFieldFound) {
-                                    log.error(String.format("%s Field %s: %s duplicated in the CSV.Task Aborted",
-                                            Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                            BulkUserProvisionDataHolder.getConfigs().getRoleField(), line[j]));
-                                    return false;
-                                }
-                                mandatoryFields.put(BulkUserProvisionDataHolder.getConfigs().getRoleField(), j);
-                                roleFieldFound = true;
-                            }
-                        }
-                    }
-                    // Add file-index with the mandatory fields.
-                    this.fileIndexToSpecialColumns.put(file, mandatoryFields);
-                    this.userSet = new LinkedHashSet<>();
-                    while (line != null && line.length > 0) {
-                        line = csvReader.readNext();
-                        userSet.add(line);
-                    }
-                    this.fileIndexToUserHashMap.put(file, userSet);
-                }
-            } catch (IOException e) {
-                log.error(String.format("%s Error occurred while reading from CSV files:%s:%s",
-                        Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                        Constants.ErrorMessage.SERVER_CSV_FILE_READ_ERROR.getCode(),
-                        Constants.ErrorMessage.SERVER_CSV_FILE_READ_ERROR.getMessage()), e);
-                return false;
-            } finally {
-                if (csvReader != null) {
-                    try {
-                        csvReader.close();
-                    } catch (IOException e) {
-                        log.error(String.format("%s Error occurred while closing csv-reader:%s:%s",
-                                Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                Constants.ErrorMessage.SERVER_CSV_READER_CLOSE_ERROR.getCode(),
-                                Constants.ErrorMessage.SERVER_CSV_READER_CLOSE_ERROR.getMessage()), e);
-                    }
-                }
-                if (bufferedReader != null) {
-                    try {
-                        bufferedReader.close();
-                    } catch (IOException e) {
-                        log.error(String.format("%s Error occurred while closing buffered-reader:%s:%s",
-                                Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                Constants.ErrorMessage.SERVER_BUFFERED_READER_CLOSE_ERROR.getCode(),
-                                Constants.ErrorMessage.SERVER_BUFFERED_READER_CLOSE_ERROR.getMessage()), e);
-                    }
-                }
-                if (targetStream != null) {
-                    try {
-                        targetStream.close();
-                    } catch (IOException e) {
-                        log.error(String.format("%s Error occurred while closing input-stream:%s:%s",
-                                Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                                Constants.ErrorMessage.SERVER_INPUT_STREAM_CLOSE_ERROR.getCode(),
-                                Constants.ErrorMessage.SERVER_INPUT_STREAM_CLOSE_ERROR.getMessage()), e);
-                    }
-                }
+    public String submitJob(Path csvPath, Properties jobProperties) throws BulkUserProvisionException {
+
+        return submitJob(csvPath, jobProperties, false);
+    }
+
+    /**
+     * Submit a job whose status is kept until {@link #releaseJob(String)} is called, so that its caller can still
+     * read how it ended when many other jobs finished in the meantime.
+     *
+     * @param csvPath       CSV file, or folder of CSV files.
+     * @param jobProperties Configurations of the job, or null to use the global configurations.
+     * @return ID of the job.
+     * @throws BulkUserProvisionException If the job could not be submitted.
+     */
+    public String submitRetainedJob(Path csvPath, Properties jobProperties) throws BulkUserProvisionException {
+
+        return submitJob(csvPath, jobProperties, true);
+    }
+
+    /**
+     * Let a retained job be forgotten like the other finished jobs.
+     *
+     * @param jobId ID of the job.
+     */
+    public synchronized void releaseJob(String jobId) {
+
+        retainedJobs.remove(jobId);
+    }
+
+    private String submitJob(Path csvPath, Properties jobProperties, boolean retained)
+            throws BulkUserProvisionException {
+
+        File[] files;
+        if (Files.isDirectory(csvPath)) {
+            files = Utils.getCsvFiles(csvPath);
+        } else if (Files.isRegularFile(csvPath) && Utils.isCsvFile(csvPath.getFileName().toString())) {
+            files = new File[]{csvPath.toFile()};
+        } else {
+            throw Utils.handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CSV_FILE, csvPath.toString());
+        }
+        return submitJob(UUID.randomUUID().toString(), files, getJobConfigurations(jobProperties), null, retained);
+    }
+
+    @Override
+    public String submitJob(InputStream csvStream, String fileName, Properties jobProperties)
+            throws BulkUserProvisionException {
+
+        // Only the name of the file is kept, so that the copy can't be written outside the folder of the job.
+        String csvFileName = StringUtils.isBlank(fileName) ? null : new File(fileName).getName();
+        if (csvStream == null || csvFileName == null || !Utils.isCsvFile(csvFileName)) {
+            throw Utils.handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CSV_FILE, fileName);
+        }
+        ConfigurationsDTO configs = getJobConfigurations(jobProperties);
+        String jobId = UUID.randomUUID().toString();
+        Path jobDir = Constants.BULK_USER_PROVISION_JOBS_DIR_PATH.resolve(jobId);
+        Path csvFile = jobDir.resolve(csvFileName);
+        try {
+            Files.createDirectories(jobDir);
+            Files.copy(csvStream, csvFile);
+        } catch (IOException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_JOB_SUBMIT_ERROR, csvFileName, e);
+        }
+        return submitJob(jobId, new File[]{csvFile.toFile()}, configs, jobDir, false);
+    }
+
+    @Override
+    public synchronized JobStatusDTO getJobStatus(String jobId) throws BulkUserProvisionClientException {
+
+        return getJob(jobId).getStatus();
+    }
+
+    @Override
+    public synchronized List<JobStatusDTO> getJobs() {
+
+        List<JobStatusDTO> jobStatuses = new ArrayList<>(jobs.size());
+        for (BulkUserProvisionJob job : jobs.values()) {
+            jobStatuses.add(job.getStatus());
+        }
+        return jobStatuses;
+    }
+
+    @Override
+    public synchronized void pauseJob(String jobId) throws BulkUserProvisionClientException {
+
+        getJob(jobId).pause();
+        log.info(String.format("%s Paused bulk user provision job: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                jobId));
+    }
+
+    @Override
+    public synchronized void resumeJob(String jobId) throws BulkUserProvisionClientException {
+
+        getJob(jobId).resume();
+        log.info(String.format("%s Resumed bulk user provision job: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                jobId));
+    }
+
+    @Override
+    public synchronized void cancelJob(String jobId) throws BulkUserProvisionClientException {
+
+        getJob(jobId).cancel();
+        jobResults.get(jobId).cancel(true);
+        log.info(String.format("%s Cancelled bulk user provision job: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                jobId));
+    }
+
+    @Override
+    public synchronized void setJobRateLimit(String jobId, double usersPerSecond, int burst)
+            throws BulkUserProvisionClientException {
+
+        if (usersPerSecond < 0) {
+            throw Utils.handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                    Constants.CONFIG_MAX_USERS_PER_SECOND);
+        }
+        if (burst < 1) {
+            throw Utils.handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                    Constants.CONFIG_MAX_USERS_PER_SECOND_BURST);
+        }
+        getJob(jobId).setRateLimit(usersPerSecond, burst);
+        log.info(String.format("%s Changed the rate limit of bulk user provision job: %s to %s users per second " +
+                "with a burst of %s users", Constants.BULK_USER_PROVISION_LOG_PREFIX, jobId, usersPerSecond, burst));
+    }
+
+    /**
+     * Cancel the queued and running jobs and wait for the running job to stop.
+     *
+     * @param timeout Time to wait for the running job to stop, in milliseconds.
+     */
+    public void shutdown(long timeout) {
+
+        synchronized (this) {
+            for (BulkUserProvisionJob job : jobs.values()) {
+                job.cancel();
             }
+            jobExecutor.shutdownNow();
+        }
+        try {
+            if (!jobExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn(String.format("%s Bulk user provision job did not stop within %s ms.",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, timeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            long readingCsvFiles = System.currentTimeMillis();
-            log.info(String.format("%s [TIME INDICATOR] Total time taken to read from CSV files and check columns" +
-                            "(in milliseconds) :%s ", Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                    (readingCsvFiles - startingTimeProvisioningBulkUsers)));
-            log.info(String.format("%s Starting user provisioning to the given user store.",
-                    Constants.BULK_USER_PROVISION_LOG_PREFIX));
-
-            // Start Privileged Carbon Context.
-            PrivilegedCarbonContext.startTenantFlow();
-            PrivilegedCarbonContext.getThreadLocalCarbonContext()
-                    .setTenantDomain(BulkUserProvisionDataHolder.getConfigs().getTenantDomain());
-            PrivilegedCarbonContext.getThreadLocalCarbonContext()
-                    .setTenantId(
-                            Utils.getTenantIdFromDomain(BulkUserProvisionDataHolder.getConfigs().getTenantDomain()));
-
-            LinkedHashSet<String[]> userSet;
-            int fileIndex;
-            int usernameColumnIndex;
-            int passwordColumnIndex;
-            int roleColumnIndex;
-            String[] columnNames = null;
-            for (Map.Entry<Integer, LinkedHashSet<String[]>> entry : this.fileIndexToUserHashMap.entrySet()) {
-                roleColumnIndex = -1;
-                fileIndex = entry.getKey();
-                userSet = entry.getValue();
-
-                usernameColumnIndex = this.fileIndexToSpecialColumns.get(fileIndex)
-                        .get(BulkUserProvisionDataHolder.getConfigs().getUsernameField());
-                passwordColumnIndex = this.fileIndexToSpecialColumns.get(fileIndex)
-                        .get(BulkUserProvisionDataHolder.getConfigs().getPasswordField());
-                if (BulkUserProvisionDataHolder.getConfigs().isRoleFieldExist()) {
-                    if (this.fileIndexToSpecialColumns.get(fileIndex)
-                            .get(BulkUserProvisionDataHolder.getConfigs().getRoleField()) != null) {
-                        roleColumnIndex = this.fileIndexToSpecialColumns.get(fileIndex)
-                                .get(BulkUserProvisionDataHolder.getConfigs().getRoleField());
-                    }
-                }
-
-                columnNames = this.columnNames.get(fileIndex);
-                for (String[] user : userSet) {
-                    if (user != null && user[usernameColumnIndex] != null && !user[usernameColumnIndex].isEmpty()) {
-                        // Add Claims.
-                        Map<String, String> claims = new HashMap<>();
-                        for (int i = 0; i < columnNames.length; i++) {
-                            if (i != usernameColumnIndex && i != passwordColumnIndex && i != roleColumnIndex) {
-                                // Check if the claims mappings are provided,if provided add it to claims map.
-                                if (BulkUserProvisionDataHolder.getConfigs().getClaims().get(columnNames[i]) != null) {
-                                    claims.put(BulkUserProvisionDataHolder.getConfigs().getClaims().get(columnNames[i]),
-                                            user[i]);
-                                } else {
-                                    log.info(String.format(
-                                            "%s Provided CSV column doesn't map with the claims provided. claim col:%s"
-                                                    + ",claim value:%s",
-                                            Constants.BULK_USER_PROVISION_LOG_PREFIX, columnNames[i], user[i]));
-                                }
-                            }
-                        }
-                        try {
-                            if (roleColumnIndex != -1) {
-                                String[] roles = {user[roleColumnIndex]};
-                                uniqueIDJDBCUserStoreManager.doAddUserWithID(user[usernameColumnIndex],
-                                        user[passwordColumnIndex], roles,
-                                        claims, null, false);
-                            } else {
-                                uniqueIDJDBCUserStoreManager.doAddUserWithID(user[usernameColumnIndex],
-                                        user[passwordColumnIndex], null,
-                                        claims, null, false);
-                            }
-                        } catch (UserStoreException e) {
-                            log.error(String.format("%s Error occurred while adding user with the username : %s",
-                                    Constants.BULK_USER_PROVISION_LOG_PREFIX, user[0]), e);
-                        }
-                    }
-                }
+    private synchronized String submitJob(String jobId, File[] files, ConfigurationsDTO configs, Path tempDir,
+                                          boolean retained) throws BulkUserProvisionException {
+
+        BulkUserProvisionJob job = new BulkUserProvisionJob(jobId, files, configs,
+                BulkUserProvisionDataHolder.getInstance().getMetrics(), tempDir);
+        try {
+            jobResults.put(jobId, jobExecutor.submit(job));
+        } catch (RejectedExecutionException e) {
+            job.cancel();
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_JOB_SUBMIT_ERROR, jobId, e);
+        }
+        jobs.put(jobId, job);
+        if (retained) {
+            retainedJobs.add(jobId);
+        }
+        removeFinishedJobs();
+        log.info(String.format("%s Submitted bulk user provision job: %s with %s files.",
+                Constants.BULK_USER_PROVISION_LOG_PREFIX, jobId, files.length));
+        return jobId;
+    }
+
+    private BulkUserProvisionJob getJob(String jobId) throws BulkUserProvisionClientException {
+
+        BulkUserProvisionJob job = jobs.get(jobId);
+        if (job == null) {
+            throw Utils.handleClientException(Constants.ErrorMessage.CLIENT_JOB_NOT_FOUND, jobId);
+        }
+        return job;
+    }
+
+    private ConfigurationsDTO getJobConfigurations(Properties jobProperties) throws BulkUserProvisionException {
+
+        if (jobProperties == null) {
+            return BulkUserProvisionDataHolder.getConfigs();
+        }
+        try {
+            return Utils.getJobConfigurations(jobProperties);
+        } catch (NumberFormatException e) {
+            throw Utils.handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Forget the oldest finished jobs, keeping the status of the last MAX_FINISHED_JOBS finished jobs and of the
+     * retained jobs.
+     */
+    private void removeFinishedJobs() {
+
+        int noOfFinishedJobs = 0;
+        for (BulkUserProvisionJob job : jobs.values()) {
+            if (job.getState().isFinished() && !retainedJobs.contains(job.getJobId())) {
+                noOfFinishedJobs++;
+            }
+        }
+        Iterator<BulkUserProvisionJob> iterator = jobs.values().iterator();
+        while (noOfFinishedJobs > Constants.MAX_FINISHED_JOBS && iterator.hasNext()) {
+            BulkUserProvisionJob job = iterator.next();
+            if (job.getState().isFinished() && !retainedJobs.contains(job.getJobId())) {
+                iterator.remove();
+                jobResults.remove(job.getJobId());
+                noOfFinishedJobs--;
             }
-            PrivilegedCarbonContext.endTenantFlow();
-            long bulkUserProvisionEnd = System.currentTimeMillis();
-            log.info(String.format("%s [TIME INDICATOR] Total time taken to add users to the user store " +
-                            "(in milliseconds) : %s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
-                    (bulkUserProvisionEnd - readingCsvFiles)));
         }
-        return true;
     }
 }
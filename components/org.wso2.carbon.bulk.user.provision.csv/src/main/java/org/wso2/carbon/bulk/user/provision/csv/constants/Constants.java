@@ -36,9 +36,34 @@ public class Constants {
     public static final int DEFAULT_NO_OF_ROWS_FETCH = 100;
     public static final String DEFAULT_USERNAME_FIELD = "username";
     public static final String DEFAULT_PASSWORD_FIELD = "password";
+    public static final String DEFAULT_SALT_FIELD = "salt";
     public static final String DEFAULT_ROLE_FIELD = "role";
     public static final int DEFAULT_WAITING_TIME_FOR_SECONDARY_USER_STORE_DOMAIN = 3000;
     public static final int DEFAULT_BULK_USER_PROVISION_POOL_SIZE = 4;
+    public static final String DEFAULT_ROLE_SEPARATOR = ";";
+    public static final int DEFAULT_ROLE_BATCH_SIZE = 1000;
+    public static final String DEFAULT_EXISTING_USER_ACTION = "SKIP";
+    public static final String DEFAULT_DUPLICATE_USERNAME_POLICY = "NONE";
+    public static final int USERNAME_PAGE_SIZE = 10000;
+    public static final int DEFAULT_ADAPTIVE_CONCURRENCY_MIN_LIMIT = 1;
+    public static final int DEFAULT_ADAPTIVE_CONCURRENCY_TARGET_LATENCY = 50;
+    public static final double DEFAULT_ADAPTIVE_CONCURRENCY_MAX_ERROR_RATE = 0.2;
+    public static final double DEFAULT_MAX_USERS_PER_SECOND = 0;
+    public static final int DEFAULT_PIPELINE_QUEUE_SIZE = 8;
+    public static final int DEFAULT_FILE_SPLIT_SIZE = 0;
+
+    // Backoff of the polls for a secondary user store to be registered, in milliseconds.
+    public static final long SECONDARY_USER_STORE_POLL_INITIAL_INTERVAL = 10;
+    public static final long SECONDARY_USER_STORE_POLL_MAX_INTERVAL = 500;
+
+    // JDBC user store property which makes the usernames case insensitive.
+    public static final String USER_STORE_PROPERTY_CASE_INSENSITIVE_USERNAME = "CaseInsensitiveUsername";
+
+    // Time to wait for a running job to stop when the component is deactivated, in milliseconds.
+    public static final long BULK_USER_PROVISION_SHUTDOWN_TIMEOUT = 30000;
+
+    // Number of chunks per worker which can be read ahead of the workers.
+    public static final int IN_FLIGHT_CHUNKS_PER_WORKER = 2;
 
     // Bulk user provision files dir path
     public static final String BULK_USER_PROVISION_CONFIG_FILE = "bulk-user-provision-config.properties";
@@ -47,6 +72,46 @@ public class Constants {
                     BULK_USER_PROVISION_CONFIG_FILE);
     public static final Path BULK_USER_PROVISION_CSV_DIR_PATH =
             Paths.get(CarbonUtils.getCarbonHome(), "migration", "bulk-user-provision");
+    public static final String BULK_USER_PROVISION_JOURNAL_FILE = "bulk-user-provision.journal";
+    public static final Path BULK_USER_PROVISION_JOURNAL_PATH =
+            BULK_USER_PROVISION_CSV_DIR_PATH.resolve(BULK_USER_PROVISION_JOURNAL_FILE);
+    public static final Path BULK_USER_PROVISION_REJECTED_ROWS_DIR_PATH =
+            BULK_USER_PROVISION_CSV_DIR_PATH.resolve("rejected");
+
+    // Folder of the CSV files copied from the streams of the submitted jobs.
+    public static final Path BULK_USER_PROVISION_JOBS_DIR_PATH = BULK_USER_PROVISION_CSV_DIR_PATH.resolve("jobs");
+    // Number of finished jobs whose status is kept.
+    public static final int MAX_FINISHED_JOBS = 100;
+
+    // Watch mode, where new CSV files of the folder are provisioned as they land and moved to the processed or the
+    // failed folder. A file is ready once its marker file exists, or if no marker suffix is configured, once its
+    // size is stable for the stable time in milliseconds.
+    public static final String CONFIG_WATCH_ENABLED = "watchEnabled";
+    public static final String CONFIG_WATCH_FILE_STABLE_TIME = "watchFileStableTime";
+    public static final String CONFIG_WATCH_MARKER_FILE_SUFFIX = "watchMarkerFileSuffix";
+    public static final long DEFAULT_WATCH_FILE_STABLE_TIME = 5000;
+    public static final long WATCH_POLL_INTERVAL = 1000;
+    public static final Path BULK_USER_PROVISION_PROCESSED_DIR_PATH =
+            BULK_USER_PROVISION_CSV_DIR_PATH.resolve("processed");
+    public static final Path BULK_USER_PROVISION_FAILED_DIR_PATH = BULK_USER_PROVISION_CSV_DIR_PATH.resolve("failed");
+
+    // Delta sync mode, where rows which are unchanged since the last completed job are skipped and changed rows are
+    // applied as claim updates along with the missing roles. A changed password alone doesn't change a row.
+    public static final String CONFIG_DELTA_SYNC_ENABLED = "deltaSyncEnabled";
+    public static final String BULK_USER_PROVISION_FINGERPRINT_STORE_FILE = "bulk-user-provision.fingerprints";
+    public static final Path BULK_USER_PROVISION_FINGERPRINT_STORE_PATH =
+            BULK_USER_PROVISION_CSV_DIR_PATH.resolve(BULK_USER_PROVISION_FINGERPRINT_STORE_FILE);
+
+    // Object name of the metrics MBean.
+    public static final String BULK_USER_PROVISION_MBEAN_NAME =
+            "org.wso2.carbon.bulk.user.provision:type=BulkUserProvisionMetrics";
+
+    // Rejected rows report.
+    public static final String REJECTED_ROWS_FILE_SUFFIX = "-rejected-";
+    public static final String REJECTED_ROWS_ERROR_CODE_COLUMN = "errorCode";
+    public static final String REJECTED_ROWS_ERROR_REASON_COLUMN = "errorReason";
+    public static final int REJECTED_ROWS_QUEUE_SIZE = 10000;
+    public static final long REJECTED_ROWS_SUMMARY_INTERVAL = 30000;
 
     // Config values
     public static final String CONFIG_IS_ENABLED = "isEnabled";
@@ -57,13 +122,72 @@ public class Constants {
     public static final String CONFIG_TENANT_DOMAIN = "tenantDomain";
     public static final String CONFIG_USERNAME_FIELD = "usernameField";
     public static final String CONFIG_PASSWORD_FIELD = "passwordField";
+    public static final String CONFIG_SALT_FIELD = "saltField";
     public static final String CONFIG_ROLE_FIELD_EXIST = "roleFieldExist";
     public static final String CONFIG_ROLE_FIELD = "roleField";
+    public static final String CONFIG_ROLE_SEPARATOR = "roleSeparator";
+    public static final String CONFIG_ROLE_BATCH_SIZE = "roleBatchSize";
     public static final String CONFIG_CLAIMS = "claims";
     public static final String CONFIG_THREAD_POOL_SIZE = "threadPoolSize";
+    public static final String CONFIG_BATCH_INSERT_ENABLED = "batchInsertEnabled";
+    public static final String CONFIG_CHECKPOINT_ENABLED = "checkpointEnabled";
+    public static final String CONFIG_EXISTING_USER_CHECK_ENABLED = "existingUserCheckEnabled";
+    public static final String CONFIG_EXISTING_USER_ACTION = "existingUserAction";
+
+    // Actions for the rows of users which already exist in the user store.
+    public static final String EXISTING_USER_ACTION_SKIP = "SKIP";
+    public static final String EXISTING_USER_ACTION_UPDATE = "UPDATE";
+    // Update the claims of the existing users in a batch per chunk, and add the users which turn out not to exist.
+    // The claims are written to the database directly, so the user store listeners are not notified, and claim
+    // values cached by the user store manager stay stale until the cache entries expire or are cleared.
+    public static final String EXISTING_USER_ACTION_UPSERT = "UPSERT";
+
+    // Policies for the rows with duplicated usernames, within a file and across files.
+    public static final String CONFIG_DUPLICATE_USERNAME_POLICY = "duplicateUsernamePolicy";
+    public static final String DUPLICATE_USERNAME_POLICY_NONE = "NONE";
+    public static final String DUPLICATE_USERNAME_POLICY_FIRST_WINS = "FIRST_WINS";
+    public static final String DUPLICATE_USERNAME_POLICY_LAST_WINS = "LAST_WINS";
+
+    // Adaptive concurrency of the user store writes. The target latency is in milliseconds per user, batch writes
+    // being measured per user of the batch.
+    public static final String CONFIG_ADAPTIVE_CONCURRENCY_ENABLED = "adaptiveConcurrencyEnabled";
+    public static final String CONFIG_ADAPTIVE_CONCURRENCY_MIN_LIMIT = "adaptiveConcurrencyMinLimit";
+    public static final String CONFIG_ADAPTIVE_CONCURRENCY_TARGET_LATENCY = "adaptiveConcurrencyTargetLatency";
+    public static final String CONFIG_ADAPTIVE_CONCURRENCY_MAX_ERROR_RATE = "adaptiveConcurrencyMaxErrorRate";
+    // Length of a sampling window in milliseconds, and the writes needed in a window to adjust the limit.
+    public static final long ADAPTIVE_CONCURRENCY_WINDOW = 1000;
+    public static final int ADAPTIVE_CONCURRENCY_MIN_WINDOW_WRITES = 20;
+    public static final double ADAPTIVE_CONCURRENCY_DECREASE_FACTOR = 0.5;
+
+    // Rate limit of the provisioned users, where zero is no limit and the burst defaults to a second of users.
+    public static final String CONFIG_MAX_USERS_PER_SECOND = "maxUsersPerSecond";
+    public static final String CONFIG_MAX_USERS_PER_SECOND_BURST = "maxUsersPerSecondBurst";
+
+    // Import of password hashes and salts instead of plaintext passwords. Needs batch insert.
+    public static final String CONFIG_PRE_HASHED_PASSWORDS_ENABLED = "preHashedPasswordsEnabled";
+
+    // Parser of the CSV files. The opencsv parser is kept for files the record reader doesn't read the same way.
+    public static final String CONFIG_CSV_PARSER = "csvParser";
+    public static final String CSV_PARSER_NIO = "NIO";
+    public static final String CSV_PARSER_OPENCSV = "OPENCSV";
+
+    // Size in MB above which a CSV file is read in byte ranges of this size in parallel, where zero disables it.
+    // Only the NIO CSV parser can split files.
+    public static final String CONFIG_FILE_SPLIT_SIZE = "fileSplitSize";
+
+    // Staged provisioning pipeline, where zero CPU threads is one thread per available processor. Only available in
+    // batch insert mode, as in the other modes the user store hashes the passwords while adding the users.
+    public static final String CONFIG_PIPELINE_ENABLED = "pipelineEnabled";
+    public static final String CONFIG_PIPELINE_CPU_THREADS = "pipelineCpuThreads";
+    public static final String CONFIG_PIPELINE_QUEUE_SIZE = "pipelineQueueSize";
+    // Interval in milliseconds between the progress logs while waiting for a stage to complete.
+    public static final long PIPELINE_STAGE_AWAIT_INTERVAL = 60000;
 
     // File specific configs.
     public static final String FILE_TYPE_CSV = ".csv";
+    public static final String FILE_TYPE_CSV_GZ = ".csv.gz";
+    // Size of the reads from a gzip compressed CSV file.
+    public static final int GZIP_BUFFER_SIZE = 64 * 1024;
     public static final char COMMA = ',';
     public static final char DOUBLE_QUOTE = '"';
     public static final char SEMI_COLON = ';';
@@ -82,6 +206,16 @@ public class Constants {
         CLIENT_USER_STORE_CONFIGURATIONS_ERROR("BUP-60004",
                 "Not configured to use primary user store or not provided secondary user store domain.",
                 "Not configured to use primary user store or not provided secondary user store domain."),
+        CLIENT_INVALID_CONFIG("BUP-60005", "Invalid bulk user provision config.",
+                "Invalid value for the bulk user provision config: %s"),
+        CLIENT_INVALID_CSV_HEADER("BUP-60006", "Invalid CSV header.", "Invalid CSV header, %s."),
+        CLIENT_EMPTY_USERNAME("BUP-60007", "Username is empty.", "Username is empty in the row."),
+        CLIENT_JOB_NOT_FOUND("BUP-60008", "Job not found.", "Bulk user provision job: %s is not found."),
+        CLIENT_INVALID_CSV_FILE("BUP-60009", "Invalid CSV file.", "Invalid CSV file: %s"),
+        CLIENT_INVALID_PASSWORD_HASH("BUP-60010", "Invalid password hash.",
+                "Invalid password hash of the user: %s, %s."),
+        CLIENT_DUPLICATE_USERNAME("BUP-60011", "Duplicated username.",
+                "Username: %s is provisioned from another row."),
 
         // Server error codes.
         SERVER_CONFIG_LOADING_ERROR("BUP-65001", "Error while loading Bulk user provision configs.",
@@ -106,7 +240,33 @@ public class Constants {
         SERVER_BUFFERED_READER_CLOSE_ERROR("BUP-65010", "An error occurred while closing buffered-reader.",
                 "An error occurred while closing buffered reader."),
         SERVER_INPUT_STREAM_CLOSE_ERROR("BUP-65011", "An error occurred while closing input stream.",
-                "An error occurred while closing input stream.");
+                "An error occurred while closing input stream."),
+        SERVER_USER_STORE_DATA_SOURCE_ERROR("BUP-65012", "An error occurred while finding user-store data source.",
+                "Data source of the user-store is not found for %s."),
+        SERVER_BATCH_USER_ADD_ERROR("BUP-65013", "An error occurred while adding a batch of users.",
+                "An error occurred while adding a batch of users for %s."),
+        SERVER_PASSWORD_DIGEST_ERROR("BUP-65014", "Unsupported password digest function.",
+                "Password digest function: %s of the user-store is not supported."),
+        SERVER_JOURNAL_ERROR("BUP-65015", "An error occurred while accessing the progress journal.",
+                "An error occurred while accessing the progress journal: %s"),
+        SERVER_USER_LIST_ERROR("BUP-65016", "An error occurred while listing the existing users.",
+                "An error occurred while listing the existing users for %s."),
+        SERVER_USER_ADD_ERROR("BUP-65017", "An error occurred while adding the user.",
+                "An error occurred while adding the user: %s"),
+        SERVER_USER_UPDATE_ERROR("BUP-65018", "An error occurred while updating the existing user.",
+                "An error occurred while updating the existing user: %s"),
+        SERVER_REJECTED_ROWS_WRITE_ERROR("BUP-65019", "An error occurred while writing the rejected rows.",
+                "An error occurred while writing the rejected rows to: %s"),
+        SERVER_JOB_SUBMIT_ERROR("BUP-65020", "An error occurred while submitting the job.",
+                "An error occurred while submitting the bulk user provision job for: %s"),
+        SERVER_FOLDER_WATCH_ERROR("BUP-65021", "An error occurred while watching the folder.",
+                "An error occurred while watching the folder: %s"),
+        SERVER_FILE_MOVE_ERROR("BUP-65022", "An error occurred while moving the file.",
+                "An error occurred while moving the file: %s"),
+        SERVER_FINGERPRINT_STORE_ERROR("BUP-65023", "An error occurred while accessing the row fingerprint store.",
+                "An error occurred while accessing the row fingerprint store: %s"),
+        SERVER_BATCH_USER_UPDATE_ERROR("BUP-65024", "An error occurred while updating a batch of users.",
+                "An error occurred while updating a batch of users for %s.");
 
         private final String code;
         private final String message;
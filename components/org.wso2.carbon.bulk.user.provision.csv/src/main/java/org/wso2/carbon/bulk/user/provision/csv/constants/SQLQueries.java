@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.constants;
+
+/**
+ * SQL queries used to write users to a JDBC user store in batches. They follow the default UM schema used by the
+ * UniqueIDJDBCUserStoreManager.
+ */
+public class SQLQueries {
+
+    public static final String ADD_USER_WITH_ID = "INSERT INTO UM_USER (UM_USER_ID, UM_USER_NAME, " +
+            "UM_USER_PASSWORD, UM_SALT_VALUE, UM_REQUIRE_CHANGE, UM_CHANGED_TIME, UM_TENANT_ID) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    public static final String ADD_USER_PROPERTY_WITH_ID = "INSERT INTO UM_USER_ATTRIBUTE (UM_USER_ID, " +
+            "UM_ATTR_NAME, UM_ATTR_VALUE, UM_PROFILE_ID, UM_TENANT_ID) VALUES ((SELECT UM_ID FROM UM_USER WHERE " +
+            "UM_USER_ID=? AND UM_TENANT_ID=?), ?, ?, ?, ?)";
+
+    public static final String GET_USER_ID = "SELECT UM_ID FROM UM_USER WHERE UM_USER_NAME=? AND UM_TENANT_ID=?";
+
+    public static final String GET_USER_ID_CASE_INSENSITIVE = "SELECT UM_ID FROM UM_USER WHERE " +
+            "LOWER(UM_USER_NAME)=LOWER(?) AND UM_TENANT_ID=?";
+
+    public static final String DELETE_USER_PROPERTY = "DELETE FROM UM_USER_ATTRIBUTE WHERE UM_USER_ID=? AND " +
+            "UM_ATTR_NAME=? AND UM_PROFILE_ID=? AND UM_TENANT_ID=?";
+
+    public static final String ADD_USER_PROPERTY = "INSERT INTO UM_USER_ATTRIBUTE (UM_USER_ID, UM_ATTR_NAME, " +
+            "UM_ATTR_VALUE, UM_PROFILE_ID, UM_TENANT_ID) VALUES (?, ?, ?, ?, ?)";
+
+    public static final String GET_USER_COUNT = "SELECT COUNT(UM_ID) FROM UM_USER WHERE UM_TENANT_ID=?";
+
+    // Keyset pagination, as the paging syntax differs between databases.
+    public static final String GET_USERNAMES_PAGE = "SELECT UM_ID, UM_USER_NAME FROM UM_USER WHERE " +
+            "UM_TENANT_ID=? AND UM_ID>? ORDER BY UM_ID";
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.dao;
+
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.constants.SQLQueries;
+import org.wso2.carbon.bulk.user.provision.csv.engine.UserRecord;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionServerException;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+import org.wso2.carbon.user.core.RealmConfiguration;
+import org.wso2.carbon.user.core.UserCoreConstants;
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.claim.ClaimManager;
+import org.wso2.carbon.user.core.jdbc.UniqueIDJDBCUserStoreManager;
+import org.wso2.carbon.user.core.util.DatabaseUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
+
+/**
+ * Writes users to the database of a UniqueIDJDBCUserStoreManager with JDBC batch statements. A whole chunk of users
+ * is written in a single transaction, instead of one connection checkout and commit per user. Also updates the claims
+ * of existing users the same way, and lists the existing usernames page by page.
+ *
+ * The writes bypass the user store manager, so its listeners are not notified and its caches are not updated. The
+ * claim values cached for an updated user stay stale until the cache entries expire or are cleared.
+ */
+public class BulkUserStoreDAO {
+
+    private final DataSource dataSource;
+    private final int tenantId;
+    private final String domainName;
+    private final ClaimManager claimManager;
+    private final boolean caseInsensitiveUsername;
+    private final Map<String, String> claimToAttributeNames = new ConcurrentHashMap<>();
+
+    public BulkUserStoreDAO(UniqueIDJDBCUserStoreManager userStoreManager) throws BulkUserProvisionServerException {
+
+        RealmConfiguration realmConfig = userStoreManager.getRealmConfiguration();
+        this.dataSource = DatabaseUtil.getRealmDataSource(realmConfig);
+        if (this.dataSource == null) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_USER_STORE_DATA_SOURCE_ERROR,
+                    Constants.BULK_USER_PROVISION);
+        }
+        String domain = realmConfig.getUserStoreProperty(UserCoreConstants.RealmConfig.PROPERTY_DOMAIN_NAME);
+        this.domainName = domain != null ? domain : UserCoreConstants.PRIMARY_DEFAULT_DOMAIN_NAME;
+        this.caseInsensitiveUsername = Boolean.parseBoolean(
+                realmConfig.getUserStoreProperty(Constants.USER_STORE_PROPERTY_CASE_INSENSITIVE_USERNAME));
+        try {
+            this.tenantId = userStoreManager.getTenantId();
+            this.claimManager = userStoreManager.getClaimManager();
+        } catch (UserStoreException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_USER_STORE_FIND_ERROR,
+                    Constants.BULK_USER_PROVISION, e);
+        }
+    }
+
+    /**
+     * Add the users and their claims in a single transaction. Either all the users are added or none of them.
+     * The password hash and the salt of each user must already be set.
+     *
+     * @param users Users to add.
+     * @throws BulkUserProvisionServerException If any of the users could not be added. The transaction is rolled
+     *                                          back.
+     */
+    public void addUsers(List<UserRecord> users) throws BulkUserProvisionServerException {
+
+        Timestamp changedTime = new Timestamp(System.currentTimeMillis());
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement addUser = connection.prepareStatement(SQLQueries.ADD_USER_WITH_ID);
+                 PreparedStatement addClaim = connection.prepareStatement(SQLQueries.ADD_USER_PROPERTY_WITH_ID)) {
+                boolean hasClaims = false;
+                for (UserRecord user : users) {
+                    String userID = UUID.randomUUID().toString();
+                    addUser.setString(1, userID);
+                    addUser.setString(2, user.getUsername());
+                    addUser.setString(3, user.getPasswordHash());
+                    addUser.setString(4, user.getSaltValue());
+                    addUser.setBoolean(5, false);
+                    addUser.setTimestamp(6, changedTime);
+                    addUser.setInt(7, tenantId);
+                    addUser.addBatch();
+
+                    for (Map.Entry<String, String> claim : user.getClaims().entrySet()) {
+                        if (claim.getValue() == null || claim.getValue().isEmpty()) {
+                            continue;
+                        }
+                        addClaim.setString(1, userID);
+                        addClaim.setInt(2, tenantId);
+                        addClaim.setString(3, getAttributeName(claim.getKey()));
+                        addClaim.setString(4, claim.getValue());
+                        addClaim.setString(5, UserCoreConstants.DEFAULT_PROFILE);
+                        addClaim.setInt(6, tenantId);
+                        addClaim.addBatch();
+                        hasClaims = true;
+                    }
+                }
+                addUser.executeBatch();
+                if (hasClaims) {
+                    addClaim.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException | UserStoreException e) {
+                connection.rollback();
+                throw Utils.handleServerException(Constants.ErrorMessage.SERVER_BATCH_USER_ADD_ERROR,
+                        Constants.BULK_USER_PROVISION, e);
+            }
+        } catch (SQLException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_BATCH_USER_ADD_ERROR,
+                    Constants.BULK_USER_PROVISION, e);
+        }
+    }
+
+    /**
+     * Replace the claim values of the existing users in a single transaction. The users which are not found are left
+     * out and returned, so that they can be added instead. The users are looked up ignoring the case of the username
+     * if the user store is case insensitive. Claims with empty values are left as they are.
+     *
+     * @param users Users to update.
+     * @return Users which don't exist in the user store.
+     * @throws BulkUserProvisionServerException If any of the users could not be updated. The transaction is rolled
+     *                                          back.
+     */
+    public List<UserRecord> updateUserClaims(List<UserRecord> users) throws BulkUserProvisionServerException {
+
+        List<UserRecord> notFoundUsers = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement getUserId = connection.prepareStatement(caseInsensitiveUsername ?
+                    SQLQueries.GET_USER_ID_CASE_INSENSITIVE : SQLQueries.GET_USER_ID);
+                 PreparedStatement deleteClaim = connection.prepareStatement(SQLQueries.DELETE_USER_PROPERTY);
+                 PreparedStatement addClaim = connection.prepareStatement(SQLQueries.ADD_USER_PROPERTY)) {
+                boolean hasClaims = false;
+                for (UserRecord user : users) {
+                    getUserId.setString(1, user.getUsername());
+                    getUserId.setInt(2, tenantId);
+                    int userId;
+                    try (ResultSet resultSet = getUserId.executeQuery()) {
+                        if (!resultSet.next()) {
+                            notFoundUsers.add(user);
+                            continue;
+                        }
+                        userId = resultSet.getInt(1);
+                    }
+
+                    for (Map.Entry<String, String> claim : user.getClaims().entrySet()) {
+                        if (claim.getValue() == null || claim.getValue().isEmpty()) {
+                            continue;
+                        }
+                        String attributeName = getAttributeName(claim.getKey());
+                        deleteClaim.setInt(1, userId);
+                        deleteClaim.setString(2, attributeName);
+                        deleteClaim.setString(3, UserCoreConstants.DEFAULT_PROFILE);
+                        deleteClaim.setInt(4, tenantId);
+                        deleteClaim.addBatch();
+
+                        addClaim.setInt(1, userId);
+                        addClaim.setString(2, attributeName);
+                        addClaim.setString(3, claim.getValue());
+                        addClaim.setString(4, UserCoreConstants.DEFAULT_PROFILE);
+                        addClaim.setInt(5, tenantId);
+                        addClaim.addBatch();
+                        hasClaims = true;
+                    }
+                }
+                if (hasClaims) {
+                    deleteClaim.executeBatch();
+                    addClaim.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException | UserStoreException e) {
+                connection.rollback();
+                throw Utils.handleServerException(Constants.ErrorMessage.SERVER_BATCH_USER_UPDATE_ERROR,
+                        Constants.BULK_USER_PROVISION, e);
+            }
+        } catch (SQLException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_BATCH_USER_UPDATE_ERROR,
+                    Constants.BULK_USER_PROVISION, e);
+        }
+        return notFoundUsers;
+    }
+
+    /**
+     * @return Number of users of the tenant in the user store.
+     * @throws BulkUserProvisionServerException If the users could not be counted.
+     */
+    public long getUserCount() throws BulkUserProvisionServerException {
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement getUserCount = connection.prepareStatement(SQLQueries.GET_USER_COUNT)) {
+            getUserCount.setInt(1, tenantId);
+            try (ResultSet resultSet = getUserCount.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_USER_LIST_ERROR,
+                    Constants.BULK_USER_PROVISION, e);
+        }
+    }
+
+    /**
+     * Page through the usernames of the tenant in the user store.
+     *
+     * @param consumer Consumer of the usernames.
+     * @throws BulkUserProvisionServerException If the usernames could not be read.
+     */
+    public void forEachUsername(Consumer<String> consumer) throws BulkUserProvisionServerException {
+
+        long lastId = -1;
+        boolean hasMoreUsers = true;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement getUsernames = connection.prepareStatement(SQLQueries.GET_USERNAMES_PAGE)) {
+            getUsernames.setMaxRows(Constants.USERNAME_PAGE_SIZE);
+            getUsernames.setFetchSize(Constants.USERNAME_PAGE_SIZE);
+            while (hasMoreUsers) {
+                getUsernames.setInt(1, tenantId);
+                getUsernames.setLong(2, lastId);
+                int noOfUsers = 0;
+                try (ResultSet resultSet = getUsernames.executeQuery()) {
+                    while (resultSet.next()) {
+                        lastId = resultSet.getLong(1);
+                        consumer.accept(resultSet.getString(2));
+                        noOfUsers++;
+                    }
+                }
+                hasMoreUsers = noOfUsers == Constants.USERNAME_PAGE_SIZE;
+            }
+        } catch (SQLException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_USER_LIST_ERROR,
+                    Constants.BULK_USER_PROVISION, e);
+        }
+    }
+
+    private String getAttributeName(String claimURI) throws UserStoreException {
+
+        String attributeName = claimToAttributeNames.get(claimURI);
+        if (attributeName == null) {
+            attributeName = claimManager.getAttributeName(domainName, claimURI);
+            if (attributeName == null) {
+                throw new UserStoreException("Attribute mapping not found for the claim: " + claimURI);
+            }
+            claimToAttributeNames.put(claimURI, attributeName);
+        }
+        return attributeName;
+    }
+}
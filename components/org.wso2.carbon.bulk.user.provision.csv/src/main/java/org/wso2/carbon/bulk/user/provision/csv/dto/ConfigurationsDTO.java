@@ -33,10 +33,34 @@ public class ConfigurationsDTO {
     private String tenantDomain;
     private boolean roleFieldExist;
     private String roleField;
+    private String roleSeparator;
+    private int roleBatchSize;
     private String usernameField;
     private String passwordField;
     private Map<String, String> claims;
     private int threadPoolSize;
+    private boolean batchInsertEnabled;
+    private boolean checkpointEnabled;
+    private boolean existingUserCheckEnabled;
+    private String existingUserAction;
+    private String duplicateUsernamePolicy;
+    private boolean adaptiveConcurrencyEnabled;
+    private int adaptiveConcurrencyMinLimit;
+    private int adaptiveConcurrencyTargetLatency;
+    private double adaptiveConcurrencyMaxErrorRate;
+    private double maxUsersPerSecond;
+    private int maxUsersPerSecondBurst;
+    private boolean pipelineEnabled;
+    private int pipelineCpuThreads;
+    private int pipelineQueueSize;
+    private boolean preHashedPasswordsEnabled;
+    private String saltField;
+    private String csvParser;
+    private int fileSplitSize;
+    private boolean watchEnabled;
+    private long watchFileStableTime;
+    private String watchMarkerFileSuffix;
+    private boolean deltaSyncEnabled;
 
     public boolean isEnabled() {
 
@@ -157,4 +181,244 @@ public class ConfigurationsDTO {
 
         this.threadPoolSize = threadPoolSize;
     }
+
+    public boolean isBatchInsertEnabled() {
+
+        return batchInsertEnabled;
+    }
+
+    public void setBatchInsertEnabled(boolean batchInsertEnabled) {
+
+        this.batchInsertEnabled = batchInsertEnabled;
+    }
+
+    public String getRoleSeparator() {
+
+        return roleSeparator;
+    }
+
+    public void setRoleSeparator(String roleSeparator) {
+
+        this.roleSeparator = roleSeparator;
+    }
+
+    public int getRoleBatchSize() {
+
+        return roleBatchSize;
+    }
+
+    public void setRoleBatchSize(int roleBatchSize) {
+
+        this.roleBatchSize = roleBatchSize;
+    }
+
+    public boolean isCheckpointEnabled() {
+
+        return checkpointEnabled;
+    }
+
+    public void setCheckpointEnabled(boolean checkpointEnabled) {
+
+        this.checkpointEnabled = checkpointEnabled;
+    }
+
+    public boolean isExistingUserCheckEnabled() {
+
+        return existingUserCheckEnabled;
+    }
+
+    public void setExistingUserCheckEnabled(boolean existingUserCheckEnabled) {
+
+        this.existingUserCheckEnabled = existingUserCheckEnabled;
+    }
+
+    public String getExistingUserAction() {
+
+        return existingUserAction;
+    }
+
+    public void setExistingUserAction(String existingUserAction) {
+
+        this.existingUserAction = existingUserAction;
+    }
+
+    public String getDuplicateUsernamePolicy() {
+
+        return duplicateUsernamePolicy;
+    }
+
+    public void setDuplicateUsernamePolicy(String duplicateUsernamePolicy) {
+
+        this.duplicateUsernamePolicy = duplicateUsernamePolicy;
+    }
+
+    public boolean isAdaptiveConcurrencyEnabled() {
+
+        return adaptiveConcurrencyEnabled;
+    }
+
+    public void setAdaptiveConcurrencyEnabled(boolean adaptiveConcurrencyEnabled) {
+
+        this.adaptiveConcurrencyEnabled = adaptiveConcurrencyEnabled;
+    }
+
+    public int getAdaptiveConcurrencyMinLimit() {
+
+        return adaptiveConcurrencyMinLimit;
+    }
+
+    public void setAdaptiveConcurrencyMinLimit(int adaptiveConcurrencyMinLimit) {
+
+        this.adaptiveConcurrencyMinLimit = adaptiveConcurrencyMinLimit;
+    }
+
+    public int getAdaptiveConcurrencyTargetLatency() {
+
+        return adaptiveConcurrencyTargetLatency;
+    }
+
+    public void setAdaptiveConcurrencyTargetLatency(int adaptiveConcurrencyTargetLatency) {
+
+        this.adaptiveConcurrencyTargetLatency = adaptiveConcurrencyTargetLatency;
+    }
+
+    public double getAdaptiveConcurrencyMaxErrorRate() {
+
+        return adaptiveConcurrencyMaxErrorRate;
+    }
+
+    public void setAdaptiveConcurrencyMaxErrorRate(double adaptiveConcurrencyMaxErrorRate) {
+
+        this.adaptiveConcurrencyMaxErrorRate = adaptiveConcurrencyMaxErrorRate;
+    }
+
+    public double getMaxUsersPerSecond() {
+
+        return maxUsersPerSecond;
+    }
+
+    public void setMaxUsersPerSecond(double maxUsersPerSecond) {
+
+        this.maxUsersPerSecond = maxUsersPerSecond;
+    }
+
+    public int getMaxUsersPerSecondBurst() {
+
+        return maxUsersPerSecondBurst;
+    }
+
+    public void setMaxUsersPerSecondBurst(int maxUsersPerSecondBurst) {
+
+        this.maxUsersPerSecondBurst = maxUsersPerSecondBurst;
+    }
+
+    public boolean isPipelineEnabled() {
+
+        return pipelineEnabled;
+    }
+
+    public void setPipelineEnabled(boolean pipelineEnabled) {
+
+        this.pipelineEnabled = pipelineEnabled;
+    }
+
+    public int getPipelineCpuThreads() {
+
+        return pipelineCpuThreads;
+    }
+
+    public void setPipelineCpuThreads(int pipelineCpuThreads) {
+
+        this.pipelineCpuThreads = pipelineCpuThreads;
+    }
+
+    public int getPipelineQueueSize() {
+
+        return pipelineQueueSize;
+    }
+
+    public void setPipelineQueueSize(int pipelineQueueSize) {
+
+        this.pipelineQueueSize = pipelineQueueSize;
+    }
+
+    public boolean isPreHashedPasswordsEnabled() {
+
+        return preHashedPasswordsEnabled;
+    }
+
+    public void setPreHashedPasswordsEnabled(boolean preHashedPasswordsEnabled) {
+
+        this.preHashedPasswordsEnabled = preHashedPasswordsEnabled;
+    }
+
+    public String getSaltField() {
+
+        return saltField;
+    }
+
+    public void setSaltField(String saltField) {
+
+        this.saltField = saltField;
+    }
+
+    public String getCsvParser() {
+
+        return csvParser;
+    }
+
+    public void setCsvParser(String csvParser) {
+
+        this.csvParser = csvParser;
+    }
+
+    public int getFileSplitSize() {
+
+        return fileSplitSize;
+    }
+
+    public void setFileSplitSize(int fileSplitSize) {
+
+        this.fileSplitSize = fileSplitSize;
+    }
+
+    public boolean isWatchEnabled() {
+
+        return watchEnabled;
+    }
+
+    public void setWatchEnabled(boolean watchEnabled) {
+
+        this.watchEnabled = watchEnabled;
+    }
+
+    public long getWatchFileStableTime() {
+
+        return watchFileStableTime;
+    }
+
+    public void setWatchFileStableTime(long watchFileStableTime) {
+
+        this.watchFileStableTime = watchFileStableTime;
+    }
+
+    public String getWatchMarkerFileSuffix() {
+
+        return watchMarkerFileSuffix;
+    }
+
+    public void setWatchMarkerFileSuffix(String watchMarkerFileSuffix) {
+
+        this.watchMarkerFileSuffix = watchMarkerFileSuffix;
+    }
+
+    public boolean isDeltaSyncEnabled() {
+
+        return deltaSyncEnabled;
+    }
+
+    public void setDeltaSyncEnabled(boolean deltaSyncEnabled) {
+
+        this.deltaSyncEnabled = deltaSyncEnabled;
+    }
 }
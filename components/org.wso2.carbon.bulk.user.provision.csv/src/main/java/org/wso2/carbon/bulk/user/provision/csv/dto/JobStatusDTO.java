@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.dto;
+
+import org.wso2.carbon.bulk.user.provision.csv.job.JobState;
+
+/**
+ * This class holds a snapshot of the progress of a bulk user provision job.
+ */
+public class JobStatusDTO {
+
+    private String jobId;
+    private JobState state;
+    private int noOfFiles;
+    private long submittedTime;
+    private long startTime;
+    private long endTime;
+    private long rowsRead;
+    private long usersAdded;
+    private long usersUpdated;
+    private long usersSkipped;
+    private long usersFailed;
+    private double maxUsersPerSecond;
+    private int maxUsersPerSecondBurst;
+
+    public String getJobId() {
+
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+
+        this.jobId = jobId;
+    }
+
+    public JobState getState() {
+
+        return state;
+    }
+
+    public void setState(JobState state) {
+
+        this.state = state;
+    }
+
+    public int getNoOfFiles() {
+
+        return noOfFiles;
+    }
+
+    public void setNoOfFiles(int noOfFiles) {
+
+        this.noOfFiles = noOfFiles;
+    }
+
+    public long getSubmittedTime() {
+
+        return submittedTime;
+    }
+
+    public void setSubmittedTime(long submittedTime) {
+
+        this.submittedTime = submittedTime;
+    }
+
+    /**
+     * @return Time the job started running, or 0 if it has not started yet.
+     */
+    public long getStartTime() {
+
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+
+        this.startTime = startTime;
+    }
+
+    /**
+     * @return Time the job finished, or 0 if it has not finished yet.
+     */
+    public long getEndTime() {
+
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+
+        this.endTime = endTime;
+    }
+
+    public long getRowsRead() {
+
+        return rowsRead;
+    }
+
+    public void setRowsRead(long rowsRead) {
+
+        this.rowsRead = rowsRead;
+    }
+
+    public long getUsersAdded() {
+
+        return usersAdded;
+    }
+
+    public void setUsersAdded(long usersAdded) {
+
+        this.usersAdded = usersAdded;
+    }
+
+    public long getUsersUpdated() {
+
+        return usersUpdated;
+    }
+
+    public void setUsersUpdated(long usersUpdated) {
+
+        this.usersUpdated = usersUpdated;
+    }
+
+    public long getUsersSkipped() {
+
+        return usersSkipped;
+    }
+
+    public void setUsersSkipped(long usersSkipped) {
+
+        this.usersSkipped = usersSkipped;
+    }
+
+    public long getUsersFailed() {
+
+        return usersFailed;
+    }
+
+    public void setUsersFailed(long usersFailed) {
+
+        this.usersFailed = usersFailed;
+    }
+
+    /**
+     * @return Maximum users provisioned per second, or zero if there is no limit.
+     */
+    public double getMaxUsersPerSecond() {
+
+        return maxUsersPerSecond;
+    }
+
+    public void setMaxUsersPerSecond(double maxUsersPerSecond) {
+
+        this.maxUsersPerSecond = maxUsersPerSecond;
+    }
+
+    public int getMaxUsersPerSecondBurst() {
+
+        return maxUsersPerSecondBurst;
+    }
+
+    public void setMaxUsersPerSecondBurst(int maxUsersPerSecondBurst) {
+
+        this.maxUsersPerSecondBurst = maxUsersPerSecondBurst;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.wso2.carbon.bulk.user.provision.csv.util.HashUtils;
+
+/**
+ * A Bloom filter of strings. It never reports a string which was added as absent, but may report a string which
+ * was not added as present with the configured false positive probability.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long noOfBits;
+    private final int noOfHashes;
+
+    public BloomFilter(long expectedInsertions, double falsePositiveProbability) {
+
+        long expected = Math.max(1, expectedInsertions);
+        long optimalNoOfBits = (long) (-expected * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        int noOfWords = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalNoOfBits + 63) / 64));
+        this.bits = new long[noOfWords];
+        this.noOfBits = noOfWords * 64L;
+        this.noOfHashes = Math.max(1, (int) Math.round((double) noOfBits / expected * Math.log(2)));
+    }
+
+    public void put(String value) {
+
+        long hash1 = HashUtils.hash64(value);
+        long hash2 = HashUtils.mix64(hash1);
+        for (int i = 0; i < noOfHashes; i++) {
+            long bitIndex = Math.floorMod(hash1 + i * hash2, noOfBits);
+            bits[(int) (bitIndex >>> 6)] |= 1L << bitIndex;
+        }
+    }
+
+    public boolean mightContain(String value) {
+
+        long hash1 = HashUtils.hash64(value);
+        long hash2 = HashUtils.mix64(hash1);
+        for (int i = 0; i < noOfHashes; i++) {
+            long bitIndex = Math.floorMod(hash1 + i * hash2, noOfBits);
+            if ((bits[(int) (bitIndex >>> 6)] & (1L << bitIndex)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Size of the filter in bytes.
+     */
+    public long getSizeInBytes() {
+
+        return bits.length * 8L;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.metrics.LatencyHistogram;
+
+/**
+ * Limits the number of concurrent writes to the user store with additive increase, multiplicative decrease. The
+ * writes of each window are sampled, and the limit grows by one while the p95 write latency stays under the target
+ * and the error rate under its maximum, and is cut by the decrease factor as soon as either is exceeded. The limit
+ * never goes above the number of workers, so a busy database slows the import down instead of the live logins.
+ * The latency of a batch write is divided by the number of its users, so that batches are compared against the same
+ * per user target as single writes.
+ */
+public class ConcurrencyLimiter {
+
+    private static final Log log = LogFactory.getLog(ConcurrencyLimiter.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final double maxErrorRate;
+    private final LatencyHistogram windowLatency = new LatencyHistogram();
+
+    // Guarded by this.
+    private int limit;
+    private int inFlight;
+    private int maxInFlightOfWindow;
+    private long windowStartTime = System.currentTimeMillis();
+    private long windowWrites;
+    private long windowErrors;
+
+    public ConcurrencyLimiter(int minLimit, int maxLimit, long targetLatency, double maxErrorRate) {
+
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.min(Math.max(1, minLimit), this.maxLimit);
+        this.targetLatencyNanos = targetLatency * 1000000L;
+        this.maxErrorRate = maxErrorRate;
+        this.limit = this.minLimit;
+    }
+
+    /**
+     * Wait until a write is allowed. Interruptions are kept for the caller, as a permit is always released by the
+     * writes holding one.
+     */
+    public synchronized void acquire() {
+
+        boolean interrupted = false;
+        while (inFlight >= limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        inFlight++;
+        maxInFlightOfWindow = Math.max(maxInFlightOfWindow, inFlight);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Release the permit of a completed write.
+     *
+     * @param latencyNanos Time taken by the write.
+     * @param noOfUsers    Number of users written by the write.
+     * @param succeeded    Whether the write succeeded.
+     */
+    public synchronized void release(long latencyNanos, int noOfUsers, boolean succeeded) {
+
+        inFlight--;
+        windowLatency.record(latencyNanos / Math.max(1, noOfUsers));
+        windowWrites++;
+        if (!succeeded) {
+            windowErrors++;
+        }
+        if (windowWrites >= Constants.ADAPTIVE_CONCURRENCY_MIN_WINDOW_WRITES &&
+                System.currentTimeMillis() - windowStartTime >= Constants.ADAPTIVE_CONCURRENCY_WINDOW) {
+            adjustLimit();
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+
+        return limit;
+    }
+
+    private void adjustLimit() {
+
+        double p95Latency = windowLatency.getPercentile(95);
+        double errorRate = (double) windowErrors / windowWrites;
+        int previousLimit = limit;
+        if (p95Latency * 1000000L > targetLatencyNanos || errorRate > maxErrorRate) {
+            limit = Math.max(minLimit, (int) (limit * Constants.ADAPTIVE_CONCURRENCY_DECREASE_FACTOR));
+        } else if (maxInFlightOfWindow >= limit) {
+            // Only grow a limit which was reached, so that an idle limit doesn't run away.
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        if (limit < previousLimit) {
+            log.info(String.format("%s Concurrent user store writes reduced from %s to %s. p95 write latency: " +
+                            "%.2f ms per user, error rate: %.2f", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                    previousLimit, limit, p95Latency, errorRate));
+        } else if (limit > previousLimit && log.isDebugEnabled()) {
+            log.debug(String.format("%s Concurrent user store writes increased to %s. p95 write latency: %.2f ms " +
+                    "per user", Constants.BULK_USER_PROVISION_LOG_PREFIX, limit, p95Latency));
+        }
+        windowLatency.reset();
+        windowStartTime = System.currentTimeMillis();
+        windowWrites = 0;
+        windowErrors = 0;
+        maxInFlightOfWindow = inFlight;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+/**
+ * Holds the details of a CSV file which are needed to provision its rows.
+ */
+public class CsvFileContext {
+
+    private final String fileName;
+    private final int fileIndex;
+    private final ProjectionPlan projectionPlan;
+    private final FileProvisionStats stats;
+    private final FileCheckpoint checkpoint;
+
+    public CsvFileContext(String fileName, int fileIndex, ProjectionPlan projectionPlan, FileProvisionStats stats,
+                          FileCheckpoint checkpoint) {
+
+        this.fileName = fileName;
+        this.fileIndex = fileIndex;
+        this.projectionPlan = projectionPlan;
+        this.stats = stats;
+        this.checkpoint = checkpoint;
+    }
+
+    public String getFileName() {
+
+        return fileName;
+    }
+
+    public int getFileIndex() {
+
+        return fileIndex;
+    }
+
+    public ProjectionPlan getProjectionPlan() {
+
+        return projectionPlan;
+    }
+
+    public FileProvisionStats getStats() {
+
+        return stats;
+    }
+
+    /**
+     * @return Checkpoint of the file or null if checkpointing is not enabled.
+     */
+    public FileCheckpoint getCheckpoint() {
+
+        return checkpoint;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionClientException;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Streams the rows of a CSV file and hands them over to the provisioning engine chunk by chunk, so that only a
+ * bounded number of rows of the file are held in memory at any time. Several files are read concurrently, and the
+ * chunks of all of them are shared by the same workers. A file larger than the file split size is read in byte
+ * ranges by several readers, keeping the row indexes of the whole file for the checkpoints and the error reports.
+ */
+public class CsvFileProvisionTask implements Callable<Boolean> {
+
+    private static final Log log = LogFactory.getLog(CsvFileProvisionTask.class);
+
+    private final ProvisioningEngine engine;
+    private final File csvFile;
+    private final int fileIndex;
+    private final int noOfRowsFetch;
+
+    public CsvFileProvisionTask(ProvisioningEngine engine, File csvFile, int fileIndex, int noOfRowsFetch) {
+
+        this.engine = engine;
+        this.csvFile = csvFile;
+        this.fileIndex = fileIndex;
+        this.noOfRowsFetch = noOfRowsFetch;
+    }
+
+    /**
+     * @return False if the file header is invalid or the file could not be read.
+     * @throws InterruptedException If interrupted while waiting for the engine to accept a chunk.
+     */
+    @Override
+    public Boolean call() throws InterruptedException {
+
+        CsvRowReader csvReader = null;
+        FileProvisionStats stats = new FileProvisionStats(csvFile.getName());
+        FileCheckpoint checkpoint = null;
+        ProgressJournal progressJournal = engine.getProgressJournal();
+        if (progressJournal != null) {
+            String fileKey = ProgressJournal.getFileKey(csvFile);
+            if (progressJournal.isCompleted(fileKey)) {
+                log.info(String.format("%s Skipping file: %s as it is already provisioned in an earlier run.",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, csvFile.getAbsolutePath()));
+                stats.onReadCompleted();
+                return true;
+            }
+            checkpoint = new FileCheckpoint(progressJournal, fileKey);
+        }
+
+        try {
+            log.info(String.format("%s Started reading from file: %s, file order: %s",
+                    Constants.BULK_USER_PROVISION, csvFile.getAbsolutePath(), fileIndex));
+
+            csvReader = CsvRowReader.open(csvFile, engine.getConfigs());
+
+            String[] columnNames = csvReader.readNext();
+            if (columnNames == null) {
+                log.info(String.format("%s CSV file: %s is empty.", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                        csvFile.getAbsolutePath()));
+                return true;
+            }
+            log.info(String.format("%s Started column check for the CSV file: %s, file order: %s",
+                    Constants.BULK_USER_PROVISION, csvFile.getAbsolutePath(), fileIndex));
+            ProjectionPlan projectionPlan = ProjectionPlan.compile(columnNames, engine.getConfigs(), csvFile.getName());
+            csvReader.setProjection(projectionPlan.getProjectedColumns());
+            CsvFileContext fileContext = new CsvFileContext(csvFile.getName(), fileIndex, projectionPlan, stats,
+                    checkpoint);
+
+            long committedRows = checkpoint != null ? checkpoint.getCommittedRows() : 0;
+            if (committedRows > 0) {
+                log.info(String.format("%s Resuming file: %s from row: %s.", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                        csvFile.getAbsolutePath(), committedRows));
+            }
+            long rowIndex;
+            long splitSize = engine.getConfigs().getFileSplitSize() * 1024L * 1024L;
+            // Compressed files can only be read from the start.
+            if (splitSize > 0 && csvFile.length() > splitSize && csvReader instanceof CsvRecordReader &&
+                    !Utils.isCompressedCsvFile(csvFile.getName())) {
+                rowIndex = readRanges((CsvRecordReader) csvReader, fileContext, splitSize, committedRows);
+            } else {
+                rowIndex = readRows(csvReader, fileContext, 0, committedRows);
+            }
+            if (checkpoint != null) {
+                checkpoint.onReadCompleted(rowIndex);
+            }
+        } catch (BulkUserProvisionClientException e) {
+            log.error(String.format("%s Invalid header in CSV file: %s. Task Aborted",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, csvFile.getAbsolutePath()), e);
+            return false;
+        } catch (IOException e) {
+            log.error(String.format("%s Error occurred while reading from CSV file: %s:%s:%s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, csvFile.getAbsolutePath(),
+                    Constants.ErrorMessage.SERVER_CSV_FILE_READ_ERROR.getCode(),
+                    Constants.ErrorMessage.SERVER_CSV_FILE_READ_ERROR.getMessage()), e);
+            return false;
+        } finally {
+            stats.onReadCompleted();
+            closeReader(csvReader);
+        }
+        return true;
+    }
+
+    /**
+     * Read the rows and hand them over to the engine chunk by chunk. The empty lines the reader skips keep their row
+     * indexes as null rows, which are not provisioned, so that the row indexes are the same as in the range starts
+     * and the checkpoints.
+     *
+     * @param csvReader     Reader positioned at the first row to read.
+     * @param fileContext   Details of the file.
+     * @param rowIndex      Index of the first row to read in the file.
+     * @param committedRows Rows provisioned in an earlier run, which are skipped.
+     * @return Index after the last row read.
+     */
+    private long readRows(CsvRowReader csvReader, CsvFileContext fileContext, long rowIndex, long committedRows)
+            throws IOException, InterruptedException {
+
+        while (rowIndex < committedRows && csvReader.skipNext()) {
+            rowIndex++;
+        }
+        long chunkFirstRow = rowIndex;
+        List<String[]> userChunk = new ArrayList<>(noOfRowsFetch);
+        long recordsRead = csvReader.getRecordsRead();
+        boolean endOfFile = false;
+        while (!endOfFile) {
+            String[] line = csvReader.readNext();
+            endOfFile = line == null;
+            long noOfRows = csvReader.getRecordsRead() - recordsRead;
+            recordsRead += noOfRows;
+            for (long row = 1; row <= noOfRows; row++) {
+                userChunk.add(row == noOfRows ? line : null);
+                rowIndex++;
+                if (userChunk.size() >= noOfRowsFetch) {
+                    engine.submit(fileContext, chunkFirstRow, userChunk);
+                    userChunk = new ArrayList<>(noOfRowsFetch);
+                    chunkFirstRow = rowIndex;
+                }
+            }
+        }
+        if (!userChunk.isEmpty()) {
+            engine.submit(fileContext, chunkFirstRow, userChunk);
+        }
+        return rowIndex;
+    }
+
+    /**
+     * Split a large file into byte ranges of about the split size and read the ranges in parallel. The ranges are
+     * first cut at even byte offsets, which may fall inside a record or a quoted field, and each range is scanned in
+     * parallel for the line breaks which could end a record. The quote parity of the ranges before a range tells
+     * whether it starts inside quotes, and so where its first record starts and how many rows come before it, after
+     * which the ranges are read in parallel from their first records. The range readers are owned by the engine and
+     * shared by all the large files.
+     *
+     * @param csvReader     Reader positioned after the header.
+     * @param fileContext   Details of the file.
+     * @param splitSize     Size of a range in bytes.
+     * @param committedRows Rows provisioned in an earlier run, which are skipped.
+     * @return Number of rows in the file.
+     */
+    private long readRanges(CsvRecordReader csvReader, CsvFileContext fileContext, long splitSize,
+                            long committedRows) throws IOException, InterruptedException {
+
+        ExecutorService rangeReaders = engine.getRangeReaders();
+        List<long[]> rangeStarts = CsvRangeScan.split(csvFile.toPath(), csvReader.getOffset(), splitSize,
+                rangeReaders);
+        log.info(String.format("%s Reading file: %s in %s ranges of %s MB.", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                csvFile.getAbsolutePath(), rangeStarts.size() - 1, splitSize / (1024 * 1024)));
+        List<Future<Long>> results = new ArrayList<>(rangeStarts.size());
+        try {
+            for (int i = 0; i + 1 < rangeStarts.size(); i++) {
+                long[] rangeStart = rangeStarts.get(i);
+                long[] nextRangeStart = rangeStarts.get(i + 1);
+                results.add(submitRange(rangeReaders, fileContext, rangeStart[0], nextRangeStart[0], rangeStart[1],
+                        nextRangeStart[1], committedRows));
+            }
+            for (Future<Long> result : results) {
+                CsvRangeScan.getResult(result);
+            }
+            return rangeStarts.get(rangeStarts.size() - 1)[1];
+        } finally {
+            // Only stop the ranges of this file, as the range readers are shared with the other files.
+            for (Future<Long> result : results) {
+                result.cancel(true);
+            }
+        }
+    }
+
+    private Future<Long> submitRange(ExecutorService rangeReaders, CsvFileContext fileContext, long start, long end,
+                                     long firstRow, long endRow, long committedRows) {
+
+        if (endRow <= committedRows) {
+            return CompletableFuture.completedFuture(endRow);
+        }
+        ProjectionPlan projectionPlan = fileContext.getProjectionPlan();
+        return rangeReaders.submit(() -> {
+            try (CsvRecordReader rangeReader = CsvRecordReader.open(csvFile.toPath(), start, end)) {
+                rangeReader.setProjection(projectionPlan.getProjectedColumns());
+                return readRows(rangeReader, fileContext, firstRow, committedRows);
+            }
+        });
+    }
+
+    private void closeReader(CsvRowReader csvReader) {
+
+        if (csvReader != null) {
+            try {
+                csvReader.close();
+            } catch (IOException e) {
+                log.error(String.format("%s Error occurred while closing csv-reader:%s:%s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                        Constants.ErrorMessage.SERVER_CSV_READER_CLOSE_ERROR.getCode(),
+                        Constants.ErrorMessage.SERVER_CSV_READER_CLOSE_ERROR.getMessage()), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Line breaks of a byte range of a CSV file which can end a record, found without knowing whether the range starts
+ * inside a quoted field. A line break ends a record only outside quotes, and as each quote byte flips the quote
+ * state, both for a doubled quote and around a quoted part, the state at a byte is the state at the start of the
+ * range flipped by the number of quotes before it. So a single scan counts the line breaks for both start states,
+ * and once the ranges before have been scanned the quote parity of each range tells which of the two applies.
+ *
+ * A carriage return followed by a line feed is one line break, ending at the line feed, the same as with the
+ * {@link CsvRecordReader}.
+ */
+public class CsvRangeScan {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final byte QUOTE = (byte) Constants.DOUBLE_QUOTE;
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final long start;
+    private final long end;
+    private boolean oddQuotes;
+    // Indexed by whether the range starts inside quotes.
+    private final long[] noOfRecordEnds = new long[2];
+    private final long[] firstRecordEnd = {-1, -1};
+    private final long[] lastRecordEnd = {-1, -1};
+
+    private CsvRangeScan(long start, long end) {
+
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Split a CSV file into byte ranges of about the split size which start at a record. The file is cut at even
+     * byte offsets, the ranges are scanned in parallel, and each cut is moved to the start of the next record.
+     *
+     * @param csvFile   Path of the CSV file.
+     * @param dataStart Offset of the first record after the header.
+     * @param splitSize Size of a range in bytes.
+     * @param executor  Executor the ranges are scanned with.
+     * @return Record ranges, as returned by {@link #getRecordRanges(List, long)}.
+     * @throws IOException          If the file could not be read.
+     * @throws InterruptedException If interrupted while waiting for the scans.
+     */
+    public static List<long[]> split(Path csvFile, long dataStart, long splitSize, ExecutorService executor)
+            throws IOException, InterruptedException {
+
+        long fileSize = Files.size(csvFile);
+        int noOfRanges = (int) Math.max(1, (fileSize - dataStart + splitSize - 1) / splitSize);
+        List<Future<CsvRangeScan>> scans = new ArrayList<>(noOfRanges);
+        try {
+            for (int i = 0; i < noOfRanges; i++) {
+                long start = dataStart + (fileSize - dataStart) * i / noOfRanges;
+                long end = dataStart + (fileSize - dataStart) * (i + 1) / noOfRanges;
+                scans.add(executor.submit(() -> scan(csvFile, start, end)));
+            }
+            List<CsvRangeScan> rangeScans = new ArrayList<>(noOfRanges);
+            for (Future<CsvRangeScan> scan : scans) {
+                rangeScans.add(getResult(scan));
+            }
+            return getRecordRanges(rangeScans, fileSize);
+        } finally {
+            for (Future<CsvRangeScan> scan : scans) {
+                scan.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Scan a byte range of a CSV file. The byte after the range is read as well, to tell whether a carriage return
+     * at the end of the range is followed by a line feed.
+     *
+     * @param csvFile Path of the CSV file.
+     * @param start   Offset of the first byte of the range, which may be inside a record.
+     * @param end     Offset after the last byte of the range.
+     * @return Line breaks of the range.
+     * @throws IOException If the file could not be read.
+     */
+    public static CsvRangeScan scan(Path csvFile, long start, long end) throws IOException {
+
+        CsvRangeScan rangeScan = new CsvRangeScan(start, end);
+        try (FileChannel fileChannel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+            ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] buffer = byteBuffer.array();
+            long offset = start;
+            // Offset of a carriage return whose next byte is not read yet, or -1.
+            long carriageReturn = -1;
+            while (offset < end) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(BUFFER_SIZE, end - offset));
+                int read = fileChannel.read(byteBuffer, offset);
+                if (read < 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (carriageReturn >= 0) {
+                        if (b != LINE_FEED) {
+                            rangeScan.onLineBreak(carriageReturn + 1);
+                        }
+                        carriageReturn = -1;
+                    }
+                    if (b == QUOTE) {
+                        rangeScan.oddQuotes = !rangeScan.oddQuotes;
+                    } else if (b == LINE_FEED) {
+                        rangeScan.onLineBreak(offset + i + 1);
+                    } else if (b == CARRIAGE_RETURN) {
+                        carriageReturn = offset + i;
+                    }
+                }
+                offset += read;
+            }
+            if (carriageReturn >= 0) {
+                // A line feed right after the range ends the line break in the next range.
+                ByteBuffer next = ByteBuffer.allocate(1);
+                if (fileChannel.read(next, end) <= 0 || next.get(0) != LINE_FEED) {
+                    rangeScan.onLineBreak(carriageReturn + 1);
+                }
+            }
+        }
+        return rangeScan;
+    }
+
+    /**
+     * Find where the records start in the scanned ranges of a file. The first range must start at a record, and
+     * each range must start where the one before it ends. A range in which no record starts is merged into the
+     * range before it.
+     *
+     * @param rangeScans Scanned ranges, in the order of the file.
+     * @param fileSize   Size of the file.
+     * @return Offset of the first record of each range and the index of its row, followed by the size of the file
+     * and the number of rows in it.
+     */
+    public static List<long[]> getRecordRanges(List<CsvRangeScan> rangeScans, long fileSize) {
+
+        long dataStart = rangeScans.isEmpty() ? fileSize : rangeScans.get(0).getStart();
+        List<long[]> recordRanges = new ArrayList<>(rangeScans.size() + 1);
+        recordRanges.add(new long[]{dataStart, 0});
+        boolean inQuotes = false;
+        long noOfRows = 0;
+        long lastRecordEnd = dataStart;
+        for (CsvRangeScan rangeScan : rangeScans) {
+            long firstRecordEnd = rangeScan.getFirstRecordEnd(inQuotes);
+            if (rangeScan.getStart() > dataStart && firstRecordEnd >= 0 && firstRecordEnd < fileSize) {
+                recordRanges.add(new long[]{firstRecordEnd, noOfRows + 1});
+            }
+            if (rangeScan.getLastRecordEnd(inQuotes) >= 0) {
+                lastRecordEnd = rangeScan.getLastRecordEnd(inQuotes);
+            }
+            noOfRows += rangeScan.getNoOfRecordEnds(inQuotes);
+            inQuotes ^= rangeScan.isOddQuotes();
+        }
+        // The last record of the file doesn't end with a line break.
+        if (lastRecordEnd < fileSize) {
+            noOfRows++;
+        }
+        recordRanges.add(new long[]{fileSize, noOfRows});
+        return recordRanges;
+    }
+
+    /**
+     * Wait for the result of a task reading a CSV file, and rethrow the error of the task as it was thrown.
+     *
+     * @param future Result of the task.
+     * @return Result.
+     * @throws IOException          If the task failed.
+     * @throws InterruptedException If interrupted while waiting, or the task was interrupted.
+     */
+    static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return Offset of the first byte of the range.
+     */
+    public long getStart() {
+
+        return start;
+    }
+
+    /**
+     * @return Offset after the last byte of the range.
+     */
+    public long getEnd() {
+
+        return end;
+    }
+
+    /**
+     * @return Whether the range has an odd number of quotes, in which case it ends in the other quote state than it
+     * starts in.
+     */
+    public boolean isOddQuotes() {
+
+        return oddQuotes;
+    }
+
+    /**
+     * @param startsInQuotes Whether the range starts inside a quoted field.
+     * @return Number of records which end in the range.
+     */
+    public long getNoOfRecordEnds(boolean startsInQuotes) {
+
+        return noOfRecordEnds[startsInQuotes ? 1 : 0];
+    }
+
+    /**
+     * @param startsInQuotes Whether the range starts inside a quoted field.
+     * @return Offset after the first record which ends in the range, which is where the next record starts, or -1
+     * if no record ends in the range.
+     */
+    public long getFirstRecordEnd(boolean startsInQuotes) {
+
+        return firstRecordEnd[startsInQuotes ? 1 : 0];
+    }
+
+    /**
+     * @param startsInQuotes Whether the range starts inside a quoted field.
+     * @return Offset after the last record which ends in the range, or -1 if no record ends in the range.
+     */
+    public long getLastRecordEnd(boolean startsInQuotes) {
+
+        return lastRecordEnd[startsInQuotes ? 1 : 0];
+    }
+
+    /**
+     * Note a line break, which ends a record for the start state that puts it outside quotes.
+     */
+    private void onLineBreak(long recordEnd) {
+
+        // Outside quotes if the quotes seen so far flipped the start state back, or never flipped it.
+        int startState = oddQuotes ? 1 : 0;
+        noOfRecordEnds[startState]++;
+        if (firstRecordEnd[startState] < 0) {
+            firstRecordEnd[startState] = recordEnd;
+        }
+        lastRecordEnd[startState] = recordEnd;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a UTF-8 CSV file straight from a channel. The bytes are scanned once in place, as the
+ * separator, the quote and the line breaks are single bytes which never occur inside a multi byte UTF-8 character,
+ * and only the fields of the projected columns are decoded to strings. The other fields of a row are left null.
+ *
+ * Fields are separated by {@link Constants#COMMA} and may be quoted with {@link Constants#DOUBLE_QUOTE}, in which
+ * case they can hold separators and line breaks, and a doubled quote stands for a quote. Records end with a line
+ * feed, a carriage return or both. An empty line is a record without any fields, which is counted but not returned.
+ *
+ * The bytes are read into a heap array rather than scanned in a direct or mapped buffer, as the fields are decoded
+ * to strings from a heap array, and a mapped file can't be moved or deleted on some platforms until the buffer is
+ * garbage collected.
+ *
+ * A reader can be limited to a byte range of a file which starts and ends at record boundaries, so that the ranges
+ * of a large file can be read in parallel.
+ */
+public class CsvRecordReader implements CsvRowReader {
+
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final byte SEPARATOR = (byte) Constants.COMMA;
+    private static final byte QUOTE = (byte) Constants.DOUBLE_QUOTE;
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte[] BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final ReadableByteChannel channel;
+    // Bytes left to read from the channel, and offset in the file of the first byte of the buffer.
+    private long remaining = Long.MAX_VALUE;
+    private long bufferOffset;
+    private byte[] buffer;
+    private int limit;
+    private int position;
+    private boolean endOfInput;
+    private boolean projectedAll = true;
+    private boolean[] projectedColumns;
+    private long recordsRead;
+
+    // Fields of the current record, as offsets from the start of the record.
+    private int recordStart;
+    private int noOfFields;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private boolean[] fieldQuoted = new boolean[16];
+    private byte[] unquoteBuffer = new byte[256];
+
+    public CsvRecordReader(ReadableByteChannel channel) {
+
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public CsvRecordReader(ReadableByteChannel channel, int bufferSize) {
+
+        this.channel = channel;
+        this.buffer = new byte[Math.max(bufferSize, 64)];
+    }
+
+    /**
+     * Open a CSV file.
+     *
+     * @param csvFile Path of the CSV file.
+     * @return Reader of the file.
+     * @throws IOException If the file could not be opened.
+     */
+    public static CsvRecordReader open(Path csvFile) throws IOException {
+
+        return new CsvRecordReader(FileChannel.open(csvFile, StandardOpenOption.READ));
+    }
+
+    /**
+     * Open a byte range of a CSV file.
+     *
+     * @param csvFile Path of the CSV file.
+     * @param start   Offset of the first record of the range.
+     * @param end     Offset after the last record of the range.
+     * @return Reader of the range.
+     * @throws IOException If the file could not be opened.
+     */
+    public static CsvRecordReader open(Path csvFile, long start, long end) throws IOException {
+
+        FileChannel fileChannel = FileChannel.open(csvFile, StandardOpenOption.READ);
+        try {
+            fileChannel.position(start);
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+        CsvRecordReader csvRecordReader = new CsvRecordReader(fileChannel);
+        csvRecordReader.bufferOffset = start;
+        csvRecordReader.remaining = end - start;
+        return csvRecordReader;
+    }
+
+    /**
+     * Only decode the given columns of the following records.
+     *
+     * @param projectedColumns Flag of each column telling whether it is decoded, or null to decode all the columns.
+     *                         Columns beyond the length of the array are not decoded.
+     */
+    public void setProjection(boolean[] projectedColumns) {
+
+        this.projectedAll = projectedColumns == null;
+        this.projectedColumns = projectedColumns;
+    }
+
+    /**
+     * @return Fields of the next record, with the columns which are not projected left null, or null at the end of
+     * the file.
+     * @throws IOException If the file could not be read.
+     */
+    @Override
+    public String[] readNext() throws IOException {
+
+        do {
+            if (!nextRecord()) {
+                return null;
+            }
+        } while (isEmptyLine());
+        String[] row = new String[noOfFields];
+        for (int i = 0; i < noOfFields; i++) {
+            if (projectedAll || (i < projectedColumns.length && projectedColumns[i])) {
+                row[i] = decodeField(i);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Skip the next record without decoding any of its fields. An empty line is skipped as a record of its own.
+     *
+     * @return False at the end of the file.
+     * @throws IOException If the file could not be read.
+     */
+    public boolean skipNext() throws IOException {
+
+        return nextRecord();
+    }
+
+    /**
+     * @return Offset in the file of the next record, which is a record boundary to split the file at.
+     */
+    public long getOffset() {
+
+        return bufferOffset + position;
+    }
+
+    /**
+     * @return Number of records read or skipped so far, including the header and the empty lines.
+     */
+    @Override
+    public long getRecordsRead() {
+
+        return recordsRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        channel.close();
+    }
+
+    /**
+     * Scan the next record and note the offsets of its fields.
+     */
+    private boolean nextRecord() throws IOException {
+
+        if (bufferOffset == 0 && position == 0) {
+            skipByteOrderMark();
+        }
+        recordStart = position;
+        noOfFields = 0;
+        if (!ensureAvailable(1)) {
+            return false;
+        }
+        int fieldStart = 0;
+        boolean quoted = false;
+        boolean inQuotes = false;
+        while (true) {
+            if (!ensureAvailable(1)) {
+                // The last record of the file doesn't end with a line break.
+                addField(fieldStart, position - recordStart, quoted);
+                break;
+            }
+            byte b = buffer[position];
+            if (inQuotes) {
+                if (b == QUOTE) {
+                    if (ensureAvailable(2) && buffer[position + 1] == QUOTE) {
+                        position += 2;
+                    } else {
+                        inQuotes = false;
+                        position++;
+                    }
+                } else {
+                    position++;
+                }
+            } else if (b == QUOTE) {
+                inQuotes = true;
+                quoted = true;
+                position++;
+            } else if (b == SEPARATOR) {
+                addField(fieldStart, position - recordStart, quoted);
+                position++;
+                fieldStart = position - recordStart;
+                quoted = false;
+            } else if (b == LINE_FEED || b == CARRIAGE_RETURN) {
+                addField(fieldStart, position - recordStart, quoted);
+                position++;
+                if (b == CARRIAGE_RETURN && ensureAvailable(1) && buffer[position] == LINE_FEED) {
+                    position++;
+                }
+                break;
+            } else {
+                position++;
+            }
+        }
+        recordsRead++;
+        return true;
+    }
+
+    private boolean isEmptyLine() {
+
+        return noOfFields == 1 && fieldEnds[0] == 0 && !fieldQuoted[0];
+    }
+
+    private void addField(int start, int end, boolean quoted) {
+
+        if (noOfFields == fieldStarts.length) {
+            int length = noOfFields * 2;
+            fieldStarts = Arrays.copyOf(fieldStarts, length);
+            fieldEnds = Arrays.copyOf(fieldEnds, length);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, length);
+        }
+        fieldStarts[noOfFields] = start;
+        fieldEnds[noOfFields] = end;
+        fieldQuoted[noOfFields] = quoted;
+        noOfFields++;
+    }
+
+    private String decodeField(int field) {
+
+        int start = recordStart + fieldStarts[field];
+        int end = recordStart + fieldEnds[field];
+        if (!fieldQuoted[field]) {
+            return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        }
+        // Drop the quotes, and keep one quote of each doubled quote inside a quoted part.
+        if (unquoteBuffer.length < end - start) {
+            unquoteBuffer = new byte[end - start];
+        }
+        int length = 0;
+        boolean inQuotes = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (b != QUOTE) {
+                unquoteBuffer[length++] = b;
+            } else if (inQuotes && i + 1 < end && buffer[i + 1] == QUOTE) {
+                unquoteBuffer[length++] = QUOTE;
+                i++;
+            } else {
+                inQuotes = !inQuotes;
+            }
+        }
+        return new String(unquoteBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void skipByteOrderMark() throws IOException {
+
+        if (ensureAvailable(BYTE_ORDER_MARK.length) && buffer[0] == BYTE_ORDER_MARK[0] &&
+                buffer[1] == BYTE_ORDER_MARK[1] && buffer[2] == BYTE_ORDER_MARK[2]) {
+            position = BYTE_ORDER_MARK.length;
+        }
+    }
+
+    /**
+     * Make sure the given number of bytes are buffered from the current position, reading from the channel if
+     * needed. The current record is moved to the start of the buffer, and the buffer grows if the record doesn't
+     * fit in it.
+     *
+     * @return False if the end of the file comes first.
+     */
+    private boolean ensureAvailable(int noOfBytes) throws IOException {
+
+        while (limit - position < noOfBytes) {
+            if (endOfInput) {
+                return false;
+            }
+            if (remaining == 0) {
+                endOfInput = true;
+                return false;
+            }
+            if (recordStart > 0) {
+                System.arraycopy(buffer, recordStart, buffer, 0, limit - recordStart);
+                bufferOffset += recordStart;
+                limit -= recordStart;
+                position -= recordStart;
+                recordStart = 0;
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int length = (int) Math.min(buffer.length - limit, remaining);
+            int read = channel.read(ByteBuffer.wrap(buffer, limit, length));
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                limit += read;
+                remaining -= read;
+            }
+        }
+        return true;
+    }
+}
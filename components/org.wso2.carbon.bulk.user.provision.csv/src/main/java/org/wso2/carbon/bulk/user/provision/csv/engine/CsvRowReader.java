@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reader of the rows of a CSV file.
+ */
+public interface CsvRowReader extends Closeable {
+
+    /**
+     * Open a CSV file with the CSV parser of the configurations. Gzip compressed CSV files are decompressed while
+     * they are read.
+     *
+     * @param csvFile CSV file.
+     * @param configs Configurations of the job.
+     * @return Reader of the file.
+     * @throws IOException If the file could not be opened.
+     */
+    static CsvRowReader open(File csvFile, ConfigurationsDTO configs) throws IOException {
+
+        if (Constants.CSV_PARSER_OPENCSV.equals(configs.getCsvParser())) {
+            return OpenCsvRowReader.open(csvFile);
+        }
+        if (Utils.isCompressedCsvFile(csvFile.getName())) {
+            return new CsvRecordReader(Channels.newChannel(openCompressed(csvFile)));
+        }
+        return CsvRecordReader.open(csvFile.toPath());
+    }
+
+    /**
+     * Open a gzip compressed CSV file as a stream of the decompressed CSV.
+     *
+     * @param csvFile Gzip compressed CSV file.
+     * @return Decompressed stream.
+     * @throws IOException If the file could not be opened or is not in the gzip format.
+     */
+    static InputStream openCompressed(File csvFile) throws IOException {
+
+        InputStream fileStream = new FileInputStream(csvFile);
+        try {
+            return new GZIPInputStream(fileStream, Constants.GZIP_BUFFER_SIZE);
+        } catch (IOException e) {
+            fileStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Fields of the next row, or null at the end of the file. Empty lines are skipped.
+     * @throws IOException If the file could not be read.
+     */
+    String[] readNext() throws IOException;
+
+    /**
+     * Skip the next row. Unlike {@link #readNext()}, an empty line is skipped as a row of its own, so that the rows
+     * skipped are the rows counted by {@link #getRecordsRead()}.
+     *
+     * @return False at the end of the file.
+     * @throws IOException If the file could not be read.
+     */
+    boolean skipNext() throws IOException;
+
+    /**
+     * @return Number of rows read or skipped so far, including the header and the empty lines.
+     */
+    long getRecordsRead();
+
+    /**
+     * Hint the columns which are used from the following rows. Readers may leave the other columns null.
+     *
+     * @param projectedColumns Flag of each column telling whether it is used.
+     */
+    default void setProjection(boolean[] projectedColumns) {
+
+    }
+}
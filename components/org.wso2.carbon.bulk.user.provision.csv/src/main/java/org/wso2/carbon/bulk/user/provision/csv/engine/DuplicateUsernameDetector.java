@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionServerException;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the rows with duplicated usernames, within a file and across all the files, before the users are
+ * provisioned. The usernames of the files are scanned in parallel, a file larger than the file split size in byte
+ * ranges, and each part is scanned into its own username index. The part indexes are merged in file order into a
+ * username index, which records the first or the last row of each username depending on the duplicate username
+ * policy. While provisioning, the other rows of the username are rejected.
+ *
+ * Files which the progress journal marks as provisioned by an earlier run are not scanned, as they are not read
+ * again. Their users already exist in the user store.
+ */
+public class DuplicateUsernameDetector {
+
+    private static final Log log = LogFactory.getLog(DuplicateUsernameDetector.class);
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final int PART_INITIAL_CAPACITY = 1 << 10;
+
+    private final UsernameIndex usernameIndex;
+    private final boolean keepLatest;
+
+    private DuplicateUsernameDetector(boolean keepLatest, boolean caseInsensitiveUsername) {
+
+        this.usernameIndex = new UsernameIndex(INITIAL_CAPACITY, caseInsensitiveUsername);
+        this.keepLatest = keepLatest;
+    }
+
+    /**
+     * Scan the usernames of the files.
+     *
+     * @param files                   CSV files in the order of their file indexes.
+     * @param configs                 Configurations of the job.
+     * @param caseInsensitiveUsername Whether the user store ignores the case of the usernames.
+     * @param progressJournal         Journal of the files provisioned by earlier runs, or null.
+     * @param scanners                Executor the parts of the files are scanned with.
+     * @return Detector of the duplicated rows.
+     * @throws BulkUserProvisionServerException If a file could not be read.
+     * @throws InterruptedException             If interrupted while waiting for the scans.
+     */
+    public static DuplicateUsernameDetector scan(File[] files, ConfigurationsDTO configs,
+                                                 boolean caseInsensitiveUsername, ProgressJournal progressJournal,
+                                                 ExecutorService scanners)
+            throws BulkUserProvisionServerException, InterruptedException {
+
+        long startingTime = System.currentTimeMillis();
+        DuplicateUsernameDetector detector = new DuplicateUsernameDetector(
+                Constants.DUPLICATE_USERNAME_POLICY_LAST_WINS.equals(configs.getDuplicateUsernamePolicy()),
+                caseInsensitiveUsername);
+        List<ScanPart> parts = new ArrayList<>();
+        for (int fileIndex = 0; fileIndex < files.length; fileIndex++) {
+            if (progressJournal != null && progressJournal.isCompleted(ProgressJournal.getFileKey(files[fileIndex]))) {
+                continue;
+            }
+            parts.addAll(split(files[fileIndex], fileIndex, configs, scanners));
+        }
+        long[] noOfDuplicates = new long[files.length];
+        detector.scanParts(parts, noOfDuplicates, caseInsensitiveUsername, configs, scanners);
+
+        long totalDuplicates = 0;
+        for (int fileIndex = 0; fileIndex < files.length; fileIndex++) {
+            if (noOfDuplicates[fileIndex] > 0) {
+                log.info(String.format("%s Found %s rows with duplicated usernames in file: %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, noOfDuplicates[fileIndex],
+                        files[fileIndex].getAbsolutePath()));
+            }
+            totalDuplicates += noOfDuplicates[fileIndex];
+        }
+        log.info(String.format("%s Scanned %s unique usernames of %s file parts into an index of %s bytes in %s ms. " +
+                        "Duplicated rows: %s, policy: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                detector.usernameIndex.size(), parts.size(), detector.usernameIndex.getSizeInBytes(),
+                (System.currentTimeMillis() - startingTime), totalDuplicates, configs.getDuplicateUsernamePolicy()));
+        return detector;
+    }
+
+    /**
+     * Check whether a row should be rejected as its username is provisioned from another row.
+     *
+     * @param username  Username of the row.
+     * @param fileIndex Index of the file of the row.
+     * @param rowIndex  Index of the row in the file.
+     * @return True if the row is a duplicate.
+     */
+    public boolean isDuplicate(String username, int fileIndex, long rowIndex) {
+
+        return !usernameIndex.isRecordedRow(username, fileIndex, rowIndex);
+    }
+
+    /**
+     * Split a file into the parts which are scanned in parallel. A file larger than the file split size is split
+     * into record aligned byte ranges the same way as it is read, and any other file is a single part.
+     */
+    private static List<ScanPart> split(File csvFile, int fileIndex, ConfigurationsDTO configs,
+                                        ExecutorService scanners)
+            throws BulkUserProvisionServerException, InterruptedException {
+
+        List<ScanPart> parts = new ArrayList<>();
+        try (CsvRowReader csvReader = CsvRowReader.open(csvFile, configs)) {
+            String[] columnNames = csvReader.readNext();
+            int usernameColumnIndex = -1;
+            for (int i = 0; columnNames != null && i < columnNames.length; i++) {
+                if (StringUtils.equals(columnNames[i], configs.getUsernameField())) {
+                    usernameColumnIndex = i;
+                    break;
+                }
+            }
+            if (usernameColumnIndex == -1) {
+                // The file is rejected when it is provisioned.
+                return parts;
+            }
+            long splitSize = configs.getFileSplitSize() * 1024L * 1024L;
+            if (splitSize > 0 && csvFile.length() > splitSize && csvReader instanceof CsvRecordReader &&
+                    !Utils.isCompressedCsvFile(csvFile.getName())) {
+                List<long[]> recordRanges = CsvRangeScan.split(csvFile.toPath(),
+                        ((CsvRecordReader) csvReader).getOffset(), splitSize, scanners);
+                for (int i = 0; i + 1 < recordRanges.size(); i++) {
+                    parts.add(new ScanPart(csvFile, fileIndex, usernameColumnIndex, recordRanges.get(i)[0],
+                            recordRanges.get(i + 1)[0], recordRanges.get(i)[1]));
+                }
+            } else {
+                parts.add(new ScanPart(csvFile, fileIndex, usernameColumnIndex, -1, -1, 0));
+            }
+        } catch (IOException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_CSV_FILE_READ_ERROR,
+                    csvFile.getAbsolutePath(), e);
+        }
+        return parts;
+    }
+
+    /**
+     * Scan the parts in parallel and merge them in order. Only a bounded number of parts are scanned ahead of the
+     * next part to merge, so that the part indexes waiting to be merged don't hold all the usernames a second time.
+     */
+    private void scanParts(List<ScanPart> parts, long[] noOfDuplicates, boolean caseInsensitiveUsername,
+                           ConfigurationsDTO configs, ExecutorService scanners)
+            throws BulkUserProvisionServerException, InterruptedException {
+
+        int threadPoolSize = configs.getThreadPoolSize() > 0 ? configs.getThreadPoolSize() :
+                Constants.DEFAULT_BULK_USER_PROVISION_POOL_SIZE;
+        int maxPendingParts = threadPoolSize * 2;
+        Deque<Future<ScanPart>> pendingParts = new ArrayDeque<>(maxPendingParts);
+        int nextPart = 0;
+        try {
+            while (nextPart < parts.size() || !pendingParts.isEmpty()) {
+                while (nextPart < parts.size() && pendingParts.size() < maxPendingParts) {
+                    ScanPart part = parts.get(nextPart++);
+                    pendingParts.add(scanners.submit(() -> part.scan(caseInsensitiveUsername, keepLatest, configs)));
+                }
+                ScanPart part = parts.get(nextPart - pendingParts.size());
+                try {
+                    CsvRangeScan.getResult(pendingParts.peek());
+                } catch (IOException e) {
+                    throw Utils.handleServerException(Constants.ErrorMessage.SERVER_CSV_FILE_READ_ERROR,
+                            part.csvFile.getAbsolutePath(), e);
+                }
+                pendingParts.poll();
+                noOfDuplicates[part.fileIndex] += part.noOfDuplicates +
+                        usernameIndex.merge(part.usernameIndex, keepLatest);
+                part.usernameIndex = null;
+            }
+        } finally {
+            for (Future<ScanPart> pendingPart : pendingParts) {
+                pendingPart.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * A file or a byte range of a file, whose usernames are scanned into an index of its own.
+     */
+    private static class ScanPart {
+
+        private final File csvFile;
+        private final int fileIndex;
+        private final int usernameColumnIndex;
+        // Byte range of the part, or -1 if the part is the whole file.
+        private final long start;
+        private final long end;
+        private final long firstRow;
+        private UsernameIndex usernameIndex;
+        private long noOfDuplicates;
+
+        private ScanPart(File csvFile, int fileIndex, int usernameColumnIndex, long start, long end, long firstRow) {
+
+            this.csvFile = csvFile;
+            this.fileIndex = fileIndex;
+            this.usernameColumnIndex = usernameColumnIndex;
+            this.start = start;
+            this.end = end;
+            this.firstRow = firstRow;
+        }
+
+        private ScanPart scan(boolean caseInsensitiveUsername, boolean keepLatest, ConfigurationsDTO configs)
+                throws IOException {
+
+            usernameIndex = new UsernameIndex(PART_INITIAL_CAPACITY, caseInsensitiveUsername);
+            CsvRowReader csvReader = start < 0 ? CsvRowReader.open(csvFile, configs) :
+                    CsvRecordReader.open(csvFile.toPath(), start, end);
+            try {
+                if (start < 0) {
+                    csvReader.readNext();
+                }
+                boolean[] projectedColumns = new boolean[usernameColumnIndex + 1];
+                projectedColumns[usernameColumnIndex] = true;
+                csvReader.setProjection(projectedColumns);
+                // Row indexes count the empty lines the reader skips, the same as while provisioning.
+                long recordsStart = csvReader.getRecordsRead() - firstRow;
+                String[] line;
+                while ((line = csvReader.readNext()) != null) {
+                    long rowIndex = csvReader.getRecordsRead() - recordsStart - 1;
+                    if (usernameColumnIndex < line.length && StringUtils.isNotEmpty(line[usernameColumnIndex]) &&
+                            usernameIndex.put(line[usernameColumnIndex], fileIndex, rowIndex, keepLatest)) {
+                        noOfDuplicates++;
+                    }
+                }
+            } finally {
+                csvReader.close();
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dao.BulkUserStoreDAO;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionServerException;
+import org.wso2.carbon.bulk.user.provision.csv.util.HashUtils;
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.jdbc.UniqueIDJDBCUserStoreManager;
+
+/**
+ * Detects the users which already exist in the user store before trying to add them. The usernames of the user
+ * store are loaded once into a Bloom filter, so most new users are cleared without a database call, and only the
+ * usernames the filter reports as present are verified against the user store.
+ */
+public class ExistingUserFilter {
+
+    private static final Log log = LogFactory.getLog(ExistingUserFilter.class);
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final UniqueIDJDBCUserStoreManager userStoreManager;
+    private final BloomFilter bloomFilter;
+    private final boolean caseInsensitiveUsername;
+
+    private ExistingUserFilter(UniqueIDJDBCUserStoreManager userStoreManager, BloomFilter bloomFilter,
+                               boolean caseInsensitiveUsername) {
+
+        this.userStoreManager = userStoreManager;
+        this.bloomFilter = bloomFilter;
+        this.caseInsensitiveUsername = caseInsensitiveUsername;
+    }
+
+    /**
+     * Page through the usernames of the user store and build the filter.
+     *
+     * @param bulkUserStoreDAO        DAO of the user store.
+     * @param userStoreManager        User store manager used to verify the usernames reported by the filter.
+     * @param caseInsensitiveUsername Whether the user store ignores the case of the usernames.
+     * @return Filter of the existing users.
+     * @throws BulkUserProvisionServerException If the usernames could not be read.
+     */
+    public static ExistingUserFilter load(BulkUserStoreDAO bulkUserStoreDAO,
+                                          UniqueIDJDBCUserStoreManager userStoreManager,
+                                          boolean caseInsensitiveUsername)
+            throws BulkUserProvisionServerException {
+
+        long startingTime = System.currentTimeMillis();
+        long noOfUsers = bulkUserStoreDAO.getUserCount();
+        BloomFilter bloomFilter = new BloomFilter(noOfUsers, FALSE_POSITIVE_PROBABILITY);
+        bulkUserStoreDAO.forEachUsername(username ->
+                bloomFilter.put(HashUtils.normalize(username, caseInsensitiveUsername)));
+        log.info(String.format("%s Loaded %s existing usernames into a filter of %s bytes in %s ms.",
+                Constants.BULK_USER_PROVISION_LOG_PREFIX, noOfUsers, bloomFilter.getSizeInBytes(),
+                (System.currentTimeMillis() - startingTime)));
+        return new ExistingUserFilter(userStoreManager, bloomFilter, caseInsensitiveUsername);
+    }
+
+    /**
+     * Check whether a user exists. Must be called inside the tenant flow of the user store.
+     *
+     * @param username Username.
+     * @return True if the user exists in the user store.
+     * @throws UserStoreException If the user store could not be checked.
+     */
+    public boolean isExistingUser(String username) throws UserStoreException {
+
+        if (!bloomFilter.mightContain(HashUtils.normalize(username, caseInsensitiveUsername))) {
+            return false;
+        }
+        return userStoreManager.isExistingUser(username);
+    }
+
+    /**
+     * Check whether a user might exist, without verifying the usernames reported by the filter against the user
+     * store.
+     *
+     * @param username Username.
+     * @return False if the user doesn't exist, or true if the user exists in most cases.
+     */
+    public boolean mightBeExistingUser(String username) {
+
+        return bloomFilter.mightContain(HashUtils.normalize(username, caseInsensitiveUsername));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import java.util.TreeMap;
+
+/**
+ * Tracks the rows of a CSV file which are provisioned. Chunks complete out of order, so only the rows up to the
+ * first chunk which is still in progress are recorded as committed in the progress journal.
+ */
+public class FileCheckpoint {
+
+    private final ProgressJournal journal;
+    private final String fileKey;
+    // First row to end row of the chunks which are completed after a chunk still in progress.
+    private final TreeMap<Long, Long> completedChunks = new TreeMap<>();
+    private long committedRows;
+    private long totalRows = -1;
+
+    public FileCheckpoint(ProgressJournal journal, String fileKey) {
+
+        this.journal = journal;
+        this.fileKey = fileKey;
+        this.committedRows = journal.getCommittedRows(fileKey);
+    }
+
+    /**
+     * @return Number of leading rows of the file which are provisioned in an earlier run.
+     */
+    public synchronized long getCommittedRows() {
+
+        return committedRows;
+    }
+
+    synchronized void onChunkCompleted(long firstRow, long endRow) {
+
+        completedChunks.put(firstRow, endRow);
+        long previouslyCommittedRows = committedRows;
+        Long chunkEndRow;
+        while ((chunkEndRow = completedChunks.remove(committedRows)) != null) {
+            committedRows = chunkEndRow;
+        }
+        if (committedRows != previouslyCommittedRows) {
+            journal.commit(fileKey, committedRows);
+            markIfCompleted();
+        }
+    }
+
+    /**
+     * Mark the file as fully read.
+     *
+     * @param totalRows Number of rows in the file.
+     */
+    public synchronized void onReadCompleted(long totalRows) {
+
+        this.totalRows = totalRows;
+        markIfCompleted();
+    }
+
+    private void markIfCompleted() {
+
+        if (totalRows >= 0 && committedRows >= totalRows) {
+            journal.markCompleted(fileKey);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the progress of a single CSV file. Chunks of a file complete on any worker and in any order, so the file
+ * is only reported as completed once the reader has finished and the last submitted chunk is provisioned.
+ */
+public class FileProvisionStats {
+
+    private static final Log log = LogFactory.getLog(FileProvisionStats.class);
+
+    private final String fileName;
+    private final long startTime = System.currentTimeMillis();
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder usersAdded = new LongAdder();
+    private final LongAdder usersFailed = new LongAdder();
+    private final LongAdder usersSkipped = new LongAdder();
+    private final LongAdder usersUpdated = new LongAdder();
+    // Starts at one for the reader of the file, which completes once the whole file is read.
+    private final AtomicInteger pendingChunks = new AtomicInteger(1);
+
+    public FileProvisionStats(String fileName) {
+
+        this.fileName = fileName;
+    }
+
+    void onChunkSubmitted(int noOfRows) {
+
+        rowsRead.add(noOfRows);
+        pendingChunks.incrementAndGet();
+    }
+
+    void onChunkCompleted() {
+
+        if (pendingChunks.decrementAndGet() == 0) {
+            logThroughput();
+        }
+    }
+
+    void onUsersAdded(int noOfUsers) {
+
+        usersAdded.add(noOfUsers);
+    }
+
+    void onUserFailed() {
+
+        usersFailed.increment();
+    }
+
+    void onUserSkipped() {
+
+        usersSkipped.increment();
+    }
+
+    void onUserUpdated() {
+
+        usersUpdated.increment();
+    }
+
+    /**
+     * Mark the file as fully read.
+     */
+    public void onReadCompleted() {
+
+        onChunkCompleted();
+    }
+
+    public String getFileName() {
+
+        return fileName;
+    }
+
+    public long getRowsRead() {
+
+        return rowsRead.sum();
+    }
+
+    public long getUsersAdded() {
+
+        return usersAdded.sum();
+    }
+
+    public long getUsersFailed() {
+
+        return usersFailed.sum();
+    }
+
+    private void logThroughput() {
+
+        long timeTaken = Math.max(1, System.currentTimeMillis() - startTime);
+        log.info(String.format("%s [TIME INDICATOR] Completed file: %s in %s ms. Rows read: %s, users added: %s, " +
+                        "users updated: %s, users skipped: %s, users failed: %s, throughput: %.2f rows/sec",
+                Constants.BULK_USER_PROVISION_LOG_PREFIX, fileName, timeTaken, rowsRead.sum(), usersAdded.sum(),
+                usersUpdated.sum(), usersSkipped.sum(), usersFailed.sum(), rowsRead.sum() * 1000.0 / timeTaken));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the rows of a CSV file with the CSVReader, for files the CSV record reader doesn't parse the same way.
+ */
+public class OpenCsvRowReader implements CsvRowReader {
+
+    private static final Log log = LogFactory.getLog(OpenCsvRowReader.class);
+
+    private final InputStream inputStream;
+    private final BufferedReader bufferedReader;
+    private final CSVReader csvReader;
+    private long recordsRead;
+
+    private OpenCsvRowReader(InputStream inputStream) {
+
+        this.inputStream = inputStream;
+        this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        this.csvReader = new CSVReader(bufferedReader, Constants.COMMA, Constants.DOUBLE_QUOTE, 0);
+    }
+
+    /**
+     * Open a CSV file.
+     *
+     * @param csvFile CSV file.
+     * @return Reader of the file.
+     * @throws IOException If the file could not be opened.
+     */
+    public static OpenCsvRowReader open(File csvFile) throws IOException {
+
+        if (Utils.isCompressedCsvFile(csvFile.getName())) {
+            return new OpenCsvRowReader(CsvRowReader.openCompressed(csvFile));
+        }
+        return new OpenCsvRowReader(new FileInputStream(csvFile));
+    }
+
+    @Override
+    public String[] readNext() throws IOException {
+
+        String[] row;
+        do {
+            row = nextRecord();
+        } while (row != null && row.length == 1 && row[0].isEmpty());
+        return row;
+    }
+
+    @Override
+    public boolean skipNext() throws IOException {
+
+        return nextRecord() != null;
+    }
+
+    @Override
+    public long getRecordsRead() {
+
+        return recordsRead;
+    }
+
+    private String[] nextRecord() throws IOException {
+
+        String[] row = csvReader.readNext();
+        if (row != null) {
+            recordsRead++;
+        }
+        return row;
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            csvReader.close();
+        } catch (IOException e) {
+            log.error(String.format("%s Error occurred while closing csv-reader:%s:%s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                    Constants.ErrorMessage.SERVER_CSV_READER_CLOSE_ERROR.getCode(),
+                    Constants.ErrorMessage.SERVER_CSV_READER_CLOSE_ERROR.getMessage()), e);
+        }
+        try {
+            bufferedReader.close();
+        } catch (IOException e) {
+            log.error(String.format("%s Error occurred while closing buffered-reader:%s:%s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                    Constants.ErrorMessage.SERVER_BUFFERED_READER_CLOSE_ERROR.getCode(),
+                    Constants.ErrorMessage.SERVER_BUFFERED_READER_CLOSE_ERROR.getMessage()), e);
+        }
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            log.error(String.format("%s Error occurred while closing input-stream:%s:%s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                    Constants.ErrorMessage.SERVER_INPUT_STREAM_CLOSE_ERROR.getCode(),
+                    Constants.ErrorMessage.SERVER_INPUT_STREAM_CLOSE_ERROR.getMessage()), e);
+        }
+    }
+}
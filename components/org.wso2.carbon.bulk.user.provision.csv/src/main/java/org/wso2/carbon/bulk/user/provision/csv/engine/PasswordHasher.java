@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.lang.StringUtils;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionServerException;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+import org.wso2.carbon.user.core.RealmConfiguration;
+import org.wso2.carbon.user.core.jdbc.JDBCRealmConstants;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Hashes passwords the same way the JDBC user store does, using the PasswordDigest and StoreSaltedPassword
+ * properties of the user store, so that users written in batches can log in like users added one by one. Password
+ * hashes imported from another system are checked against the same properties, as the Base64 of the digest of the
+ * password followed by the Base64 salt.
+ */
+public class PasswordHasher {
+
+    private static final String PLAIN_TEXT = "PLAIN_TEXT";
+    private static final int SALT_LENGTH = 16;
+
+    private final String digestFunction;
+    private final boolean storeSaltedPassword;
+    private final int digestLength;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final ThreadLocal<MessageDigest> messageDigest;
+
+    public PasswordHasher(RealmConfiguration realmConfig) throws BulkUserProvisionServerException {
+
+        this.digestFunction = realmConfig.getUserStoreProperty(JDBCRealmConstants.DIGEST_FUNCTION);
+        this.storeSaltedPassword =
+                Boolean.parseBoolean(realmConfig.getUserStoreProperty(JDBCRealmConstants.STORE_SALTED_PASSWORDS));
+        if (isHashed()) {
+            try {
+                this.digestLength = MessageDigest.getInstance(digestFunction).getDigestLength();
+            } catch (NoSuchAlgorithmException e) {
+                throw Utils.handleServerException(Constants.ErrorMessage.SERVER_PASSWORD_DIGEST_ERROR,
+                        digestFunction, e);
+            }
+        } else {
+            this.digestLength = 0;
+        }
+        this.messageDigest = ThreadLocal.withInitial(() -> {
+            try {
+                return isHashed() ? MessageDigest.getInstance(digestFunction) : null;
+            } catch (NoSuchAlgorithmException e) {
+                // Already validated when the hasher was created.
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Set the password hash and the salt of the user.
+     *
+     * @param user User read from the CSV.
+     */
+    public void hash(UserRecord user) {
+
+        String saltValue = null;
+        if (storeSaltedPassword) {
+            byte[] salt = new byte[SALT_LENGTH];
+            secureRandom.nextBytes(salt);
+            saltValue = Base64.getEncoder().encodeToString(salt);
+        }
+        String password = user.getPassword();
+        if (saltValue != null) {
+            password = password + saltValue;
+        }
+        if (isHashed()) {
+            // Platform charset, the same as the user store manager, so that the users can log in with the password.
+            byte[] digest = messageDigest.get().digest(password.getBytes());
+            password = Base64.getEncoder().encodeToString(digest);
+        }
+        user.setPasswordHash(password);
+        user.setSaltValue(saltValue);
+    }
+
+    /**
+     * Set a password hash and salt read from the CSV as they are, if they match the digest of the user store.
+     *
+     * @param user         User read from the CSV.
+     * @param passwordHash Base64 digest of the password and the salt, or the password if the user store keeps plain
+     *                     text passwords.
+     * @param saltValue    Base64 salt, or null if the user store doesn't salt the passwords.
+     * @return Reason the hash doesn't match the user store, or null if the hash and the salt are set.
+     */
+    public String setPasswordHash(UserRecord user, String passwordHash, String saltValue) {
+
+        if (StringUtils.isEmpty(passwordHash)) {
+            return "password hash is empty";
+        }
+        if (storeSaltedPassword && StringUtils.isEmpty(saltValue)) {
+            return "salt is empty while the user store stores salted passwords";
+        }
+        if (!storeSaltedPassword && StringUtils.isNotEmpty(saltValue)) {
+            return "salt is given while the user store doesn't store salted passwords";
+        }
+        if (isHashed()) {
+            byte[] digest;
+            try {
+                digest = Base64.getDecoder().decode(passwordHash);
+            } catch (IllegalArgumentException e) {
+                return "password hash is not Base64 encoded";
+            }
+            if (digest.length != digestLength) {
+                return String.format("password hash is %s bytes while %s digests are %s bytes", digest.length,
+                        digestFunction, digestLength);
+            }
+        }
+        user.setPasswordHash(passwordHash);
+        user.setSaltValue(storeSaltedPassword ? saltValue : null);
+        return null;
+    }
+
+    private boolean isHashed() {
+
+        return digestFunction != null && !PLAIN_TEXT.equals(digestFunction);
+    }
+}
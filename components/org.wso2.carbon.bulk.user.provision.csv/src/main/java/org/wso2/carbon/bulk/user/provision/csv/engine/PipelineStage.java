@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.wso2.carbon.bulk.user.provision.csv.metrics.PipelineStageStats;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stage of the provisioning pipeline, with its own threads and a bounded queue of chunks. Submitting to a full
+ * stage blocks, so a slow stage holds back the stages before it instead of buffering their output.
+ */
+public class PipelineStage implements PipelineStageStats {
+
+    private final String name;
+    private final int noOfThreads;
+    private final ThreadPoolExecutor executor;
+    // Permits for the chunks running or queued in the stage.
+    private final Semaphore slots;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder chunksCompleted = new LongAdder();
+    private final long startTime = System.nanoTime();
+    private volatile long endTime;
+
+    public PipelineStage(String name, int noOfThreads, int queueSize) {
+
+        this.name = name;
+        this.noOfThreads = Math.max(1, noOfThreads);
+        this.slots = new Semaphore(this.noOfThreads + Math.max(1, queueSize));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.noOfThreads, this.noOfThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "BulkUserProvision" + name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run the given work on a thread of the stage. Blocks while the queue of the stage is full.
+     *
+     * @param work Work on a chunk.
+     * @throws InterruptedException If interrupted while waiting for a free slot.
+     */
+    public void submit(Runnable work) throws InterruptedException {
+
+        slots.acquire();
+        queueDepth.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                queueDepth.decrementAndGet();
+                long workStartTime = System.nanoTime();
+                try {
+                    work.run();
+                } finally {
+                    busyNanos.add(System.nanoTime() - workStartTime);
+                    chunksCompleted.increment();
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queueDepth.decrementAndGet();
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Stop accepting work and wait for the submitted work to complete.
+     *
+     * @param timeout Time to wait, in milliseconds.
+     * @return True if the stage is terminated.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean shutdownAndAwait(long timeout) throws InterruptedException {
+
+        executor.shutdown();
+        boolean terminated = executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        if (terminated && endTime == 0) {
+            endTime = System.nanoTime();
+        }
+        return terminated;
+    }
+
+    /**
+     * Stop the stage without waiting for the submitted work.
+     */
+    public void shutdownNow() {
+
+        executor.shutdownNow();
+        if (endTime == 0) {
+            endTime = System.nanoTime();
+        }
+    }
+
+    public String getName() {
+
+        return name;
+    }
+
+    @Override
+    public int getQueueDepth() {
+
+        return queueDepth.get();
+    }
+
+    @Override
+    public double getUtilization() {
+
+        long end = endTime == 0 ? System.nanoTime() : endTime;
+        long elapsed = Math.max(1, end - startTime) * noOfThreads;
+        return Math.min(1, (double) busyNanos.sum() / elapsed);
+    }
+
+    @Override
+    public long getChunksCompleted() {
+
+        return chunksCompleted.sum();
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format("%s (queued: %s, utilization: %.2f, chunks: %s)", name, getQueueDepth(),
+                getUtilization(), getChunksCompleted());
+    }
+}
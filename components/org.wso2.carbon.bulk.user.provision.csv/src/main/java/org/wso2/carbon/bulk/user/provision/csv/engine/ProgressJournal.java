@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionServerException;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Durable journal of the rows committed from each CSV file, so that a restarted run continues from the last
+ * committed chunk instead of the first row. Entries are only ever appended and each append is forced to the disk,
+ * the latest entry of a file being the one which counts. The journal is compacted to a single entry per file when it
+ * is opened. Only the lines ending with a line break are loaded, and compacting drops a last line which was only
+ * partly written before a crash, so that the next entry starts on a line of its own.
+ */
+public class ProgressJournal implements Closeable {
+
+    private static final Log log = LogFactory.getLog(ProgressJournal.class);
+    private static final String SEPARATOR = "\t";
+    private static final String COMPLETED = "COMPLETED";
+
+    private final Path journalPath;
+    private final Map<String, String> entries = new LinkedHashMap<>();
+    private FileChannel channel;
+
+    private ProgressJournal(Path journalPath) {
+
+        this.journalPath = journalPath;
+    }
+
+    /**
+     * Load the journal at the given path, or create it if it doesn't exist.
+     *
+     * @param journalPath Path of the journal file.
+     * @return Progress journal ready to record progress.
+     * @throws BulkUserProvisionServerException If the journal could not be read or written.
+     */
+    public static ProgressJournal open(Path journalPath) throws BulkUserProvisionServerException {
+
+        ProgressJournal journal = new ProgressJournal(journalPath);
+        try {
+            journal.load();
+            journal.compact();
+            journal.channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_JOURNAL_ERROR, journalPath.toString(),
+                    e);
+        }
+        return journal;
+    }
+
+    /**
+     * Key of a file in the journal. A file which is replaced by another file with the same name is provisioned
+     * again.
+     *
+     * @param file CSV file.
+     * @return Key of the file.
+     */
+    public static String getFileKey(File file) {
+
+        return file.getName() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * @param fileKey Key of the file.
+     * @return Number of leading rows of the file which are already provisioned.
+     */
+    public synchronized long getCommittedRows(String fileKey) {
+
+        String entry = entries.get(fileKey);
+        if (entry == null || COMPLETED.equals(entry)) {
+            return 0;
+        }
+        return Long.parseLong(entry);
+    }
+
+    /**
+     * @param fileKey Key of the file.
+     * @return True if all the rows of the file are already provisioned.
+     */
+    public synchronized boolean isCompleted(String fileKey) {
+
+        return COMPLETED.equals(entries.get(fileKey));
+    }
+
+    /**
+     * Record that the leading rows of a file are provisioned.
+     *
+     * @param fileKey       Key of the file.
+     * @param committedRows Number of leading rows which are provisioned.
+     */
+    public synchronized void commit(String fileKey, long committedRows) {
+
+        append(fileKey, String.valueOf(committedRows));
+    }
+
+    /**
+     * Record that all the rows of a file are provisioned.
+     *
+     * @param fileKey Key of the file.
+     */
+    public synchronized void markCompleted(String fileKey) {
+
+        append(fileKey, COMPLETED);
+    }
+
+    @Override
+    public synchronized void close() {
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error(String.format("%s Error occurred while closing the progress journal: %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, journalPath), e);
+            }
+            channel = null;
+        }
+    }
+
+    private void append(String fileKey, String entry) {
+
+        entries.put(fileKey, entry);
+        if (channel == null) {
+            return;
+        }
+        byte[] line = (fileKey + SEPARATOR + entry + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            log.error(String.format("%s Error occurred while writing to the progress journal: %s:%s:%s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, journalPath,
+                    Constants.ErrorMessage.SERVER_JOURNAL_ERROR.getCode(),
+                    Constants.ErrorMessage.SERVER_JOURNAL_ERROR.getMessage()), e);
+        }
+    }
+
+    private void load() throws IOException {
+
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        String content = new String(Files.readAllBytes(journalPath), StandardCharsets.UTF_8);
+        // A last line without a line break was only partly written before a crash, and may hold a cut number.
+        String[] lines = content.substring(0, content.lastIndexOf('\n') + 1).split("\n");
+        for (String line : lines) {
+            int separatorIndex = line.lastIndexOf(SEPARATOR);
+            if (separatorIndex <= 0) {
+                continue;
+            }
+            String entry = line.substring(separatorIndex + 1);
+            if (COMPLETED.equals(entry) || entry.matches("\\d+")) {
+                entries.put(line.substring(0, separatorIndex), entry);
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+
+        Path compactedPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            content.append(entry.getKey()).append(SEPARATOR).append(entry.getValue()).append('\n');
+        }
+        try (FileChannel compacted = FileChannel.open(compactedPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                compacted.write(buffer);
+            }
+            compacted.force(true);
+        }
+        Files.move(compactedPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
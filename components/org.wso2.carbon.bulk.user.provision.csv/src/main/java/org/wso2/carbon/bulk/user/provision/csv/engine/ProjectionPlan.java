@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionClientException;
+import org.wso2.carbon.bulk.user.provision.csv.util.HashUtils;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Projection of the columns of a CSV file to a user, compiled once from the header of the file. It holds the column
+ * indexes of the username, password, salt and role fields, and the claim URI of each mapped column. Columns which
+ * don't map to a claim are dropped and reported once per file. The salt field is only read when the passwords are
+ * pre-hashed.
+ */
+public class ProjectionPlan {
+
+    private static final Log log = LogFactory.getLog(ProjectionPlan.class);
+    // Stands in for the claim URI of the role column in the fingerprint of a row.
+    private static final long ROLE_COLUMN_HASH = HashUtils.hash64("roles");
+
+    private final String[] columnNames;
+    private final int usernameColumnIndex;
+    private final int passwordColumnIndex;
+    private final int roleColumnIndex;
+    private final int saltColumnIndex;
+    private final int[] claimColumnIndexes;
+    private final String[] claimURIs;
+    private final long[] claimURIHashes;
+    private final boolean[] projectedColumns;
+
+    private ProjectionPlan(String[] columnNames, int usernameColumnIndex, int passwordColumnIndex, int roleColumnIndex,
+                           int saltColumnIndex, int[] claimColumnIndexes, String[] claimURIs) {
+
+        this.columnNames = columnNames;
+        this.usernameColumnIndex = usernameColumnIndex;
+        this.passwordColumnIndex = passwordColumnIndex;
+        this.roleColumnIndex = roleColumnIndex;
+        this.saltColumnIndex = saltColumnIndex;
+        this.claimColumnIndexes = claimColumnIndexes;
+        this.claimURIs = claimURIs;
+        this.claimURIHashes = new long[claimURIs.length];
+        for (int i = 0; i < claimURIs.length; i++) {
+            claimURIHashes[i] = HashUtils.hash64(claimURIs[i]);
+        }
+        this.projectedColumns = new boolean[columnNames.length];
+        for (int columnIndex : new int[]{usernameColumnIndex, passwordColumnIndex, roleColumnIndex, saltColumnIndex}) {
+            if (columnIndex >= 0) {
+                projectedColumns[columnIndex] = true;
+            }
+        }
+        for (int columnIndex : claimColumnIndexes) {
+            projectedColumns[columnIndex] = true;
+        }
+    }
+
+    /**
+     * Compile the projection of a CSV file from its header.
+     *
+     * @param columnNames Header of the CSV file.
+     * @param configs     Configurations of the job.
+     * @param fileName    Name of the CSV file.
+     * @return Projection plan of the file.
+     * @throws BulkUserProvisionClientException If a mandatory field is duplicated or not found in the header.
+     */
+    public static ProjectionPlan compile(String[] columnNames, ConfigurationsDTO configs, String fileName)
+            throws BulkUserProvisionClientException {
+
+        int usernameColumnIndex = -1;
+        int passwordColumnIndex = -1;
+        int roleColumnIndex = -1;
+        int saltColumnIndex = -1;
+        Map<String, String> claims = configs.getClaims() != null ? configs.getClaims() : new HashMap<>();
+        List<Integer> claimColumnIndexes = new ArrayList<>();
+        List<String> claimURIs = new ArrayList<>();
+        List<String> unmappedColumns = new ArrayList<>();
+
+        for (int i = 0; i < columnNames.length; i++) {
+            String columnName = columnNames[i];
+            if (StringUtils.equals(columnName, configs.getUsernameField())) {
+                usernameColumnIndex = getFieldIndex(usernameColumnIndex, i, configs.getUsernameField(), fileName);
+            } else if (StringUtils.equals(columnName, configs.getPasswordField())) {
+                passwordColumnIndex = getFieldIndex(passwordColumnIndex, i, configs.getPasswordField(), fileName);
+            } else if (configs.isRoleFieldExist() && StringUtils.equals(columnName, configs.getRoleField())) {
+                roleColumnIndex = getFieldIndex(roleColumnIndex, i, configs.getRoleField(), fileName);
+            } else if (configs.isPreHashedPasswordsEnabled() &&
+                    StringUtils.equals(columnName, configs.getSaltField())) {
+                saltColumnIndex = getFieldIndex(saltColumnIndex, i, configs.getSaltField(), fileName);
+            } else if (claims.get(columnName) != null) {
+                claimColumnIndexes.add(i);
+                claimURIs.add(claims.get(columnName));
+            } else {
+                unmappedColumns.add(columnName);
+            }
+        }
+        if (usernameColumnIndex == -1 || passwordColumnIndex == -1) {
+            throw Utils.handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CSV_HEADER,
+                    String.format("username field: %s or password field: %s is not found in the CSV file: %s",
+                            configs.getUsernameField(), configs.getPasswordField(), fileName));
+        }
+        if (!unmappedColumns.isEmpty()) {
+            log.info(String.format("%s Provided CSV columns of file: %s don't map with the claims provided and " +
+                            "are dropped. claim cols:%s", Constants.BULK_USER_PROVISION_LOG_PREFIX, fileName,
+                    unmappedColumns));
+        }
+
+        int[] claimColumns = new int[claimColumnIndexes.size()];
+        for (int i = 0; i < claimColumns.length; i++) {
+            claimColumns[i] = claimColumnIndexes.get(i);
+        }
+        return new ProjectionPlan(columnNames, usernameColumnIndex, passwordColumnIndex, roleColumnIndex,
+                saltColumnIndex, claimColumns, claimURIs.toArray(new String[0]));
+    }
+
+    /**
+     * Project the claim columns of a row.
+     *
+     * @param row CSV row.
+     * @return Claim URI to claim value map of the row.
+     */
+    public Map<String, String> getClaims(String[] row) {
+
+        Map<String, String> claims = new HashMap<>(claimURIs.length * 4 / 3 + 1);
+        for (int i = 0; i < claimColumnIndexes.length; i++) {
+            if (claimColumnIndexes[i] < row.length) {
+                claims.put(claimURIs[i], row[claimColumnIndexes[i]]);
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * Fingerprint of the claim and role columns of a row, which are the values an existing user is updated with. The
+     * hashes of the columns are added up, so that the fingerprint doesn't depend on the order of the columns in the
+     * file. The password is left out, as an existing user keeps its password.
+     *
+     * @param row CSV row.
+     * @return Non-zero fingerprint of the claims and roles of the row.
+     */
+    public long getFingerprint(String[] row) {
+
+        long fingerprint = claimURIs.length;
+        for (int i = 0; i < claimColumnIndexes.length; i++) {
+            fingerprint += getColumnFingerprint(claimURIHashes[i], getValue(row, claimColumnIndexes[i]));
+        }
+        if (roleColumnIndex >= 0) {
+            fingerprint += getColumnFingerprint(ROLE_COLUMN_HASH, getValue(row, roleColumnIndex));
+        }
+        return fingerprint != RowFingerprintStore.NO_FINGERPRINT ? fingerprint : 1L;
+    }
+
+    private static long getColumnFingerprint(long columnHash, String value) {
+
+        long valueHash = value != null ? HashUtils.hash64(value) : 0L;
+        return HashUtils.mix64(columnHash ^ HashUtils.mix64(valueHash + 1));
+    }
+
+    /**
+     * @param row         CSV row.
+     * @param columnIndex Index of the column.
+     * @return Value of the column or null if the row doesn't have the column.
+     */
+    public static String getValue(String[] row, int columnIndex) {
+
+        return row != null && columnIndex >= 0 && columnIndex < row.length ? row[columnIndex] : null;
+    }
+
+    public String[] getColumnNames() {
+
+        return columnNames;
+    }
+
+    /**
+     * @return Flag of each column telling whether the column is used. The other columns don't need to be parsed.
+     */
+    public boolean[] getProjectedColumns() {
+
+        return projectedColumns;
+    }
+
+    public int getUsernameColumnIndex() {
+
+        return usernameColumnIndex;
+    }
+
+    public int getPasswordColumnIndex() {
+
+        return passwordColumnIndex;
+    }
+
+    /**
+     * @return Index of the role column or -1 if the file doesn't have a role column.
+     */
+    public int getRoleColumnIndex() {
+
+        return roleColumnIndex;
+    }
+
+    /**
+     * @return Index of the salt column or -1 if the passwords are not pre-hashed or the file doesn't have a salt
+     * column.
+     */
+    public int getSaltColumnIndex() {
+
+        return saltColumnIndex;
+    }
+
+    private static int getFieldIndex(int currentIndex, int index, String field, String fileName)
+            throws BulkUserProvisionClientException {
+
+        if (currentIndex != -1) {
+            throw Utils.handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CSV_HEADER,
+                    String.format("field: %s is duplicated in the CSV file: %s", field, fileName));
+        }
+        log.info(String.format("%s Field %s found in the CSV file: %s at column: %s.",
+                Constants.BULK_USER_PROVISION_LOG_PREFIX, field, fileName, index));
+        return index;
+    }
+}
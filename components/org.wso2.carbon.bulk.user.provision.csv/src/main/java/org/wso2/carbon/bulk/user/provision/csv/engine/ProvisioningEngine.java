@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dao.BulkUserStoreDAO;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionServerException;
+import org.wso2.carbon.bulk.user.provision.csv.metrics.BulkUserProvisionMetrics;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.user.core.jdbc.UniqueIDJDBCUserStoreManager;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spreads chunks of CSV rows across threadPoolSize workers. The workers form a work stealing pool shared by all the
+ * files being read, so once the small files are done the idle workers pick up the chunks of the remaining large
+ * files. The number of chunks which are read but not yet provisioned is bounded, so that the readers block instead
+ * of buffering whole files when the user store is slower than the CSV parsing. If the pipeline is enabled in batch
+ * insert mode, the chunks go through the stages of the provisioning pipeline instead of the work stealing pool.
+ */
+public class ProvisioningEngine {
+
+    private static final Log log = LogFactory.getLog(ProvisioningEngine.class);
+
+    private final ConfigurationsDTO configs;
+    private final UniqueIDJDBCUserStoreManager userStoreManager;
+    private final int tenantId;
+    private final boolean caseInsensitiveUsername;
+    private final BulkUserStoreDAO bulkUserStoreDAO;
+    private final PasswordHasher passwordHasher;
+    private final RoleAssigner roleAssigner;
+    private final ProgressJournal progressJournal;
+    private final RejectedRowsWriter rejectedRowsWriter;
+    private final RowFingerprintStore rowFingerprintStore;
+    private ExistingUserFilter existingUserFilter;
+    private DuplicateUsernameDetector duplicateUsernameDetector;
+    // Either the workers or the pipeline provision the chunks, and the other is null.
+    private final ExecutorService workers;
+    private final ProvisioningPipeline pipeline;
+    // Shared by the files which are read in byte ranges, so that the number of range readers stays bounded.
+    private final ExecutorService rangeReaders;
+    private final Semaphore inFlightChunks;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final RateLimiter rateLimiter;
+    private final BulkUserProvisionMetrics metrics;
+    private final Object pauseLock = new Object();
+    private boolean paused;
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder usersAdded = new LongAdder();
+    private final LongAdder usersFailed = new LongAdder();
+    private final LongAdder usersSkipped = new LongAdder();
+    private final LongAdder usersUpdated = new LongAdder();
+
+    public ProvisioningEngine(ConfigurationsDTO configs, UniqueIDJDBCUserStoreManager userStoreManager,
+                              int tenantId, BulkUserProvisionMetrics metrics) throws BulkUserProvisionServerException {
+
+        this.configs = configs;
+        this.metrics = metrics;
+        this.userStoreManager = userStoreManager;
+        this.tenantId = tenantId;
+        this.caseInsensitiveUsername = Boolean.parseBoolean(userStoreManager.getRealmConfiguration()
+                .getUserStoreProperty(Constants.USER_STORE_PROPERTY_CASE_INSENSITIVE_USERNAME));
+        if (configs.isBatchInsertEnabled() || configs.isExistingUserCheckEnabled()) {
+            this.bulkUserStoreDAO = new BulkUserStoreDAO(userStoreManager);
+        } else {
+            this.bulkUserStoreDAO = null;
+        }
+        if (configs.isBatchInsertEnabled()) {
+            this.passwordHasher = new PasswordHasher(userStoreManager.getRealmConfiguration());
+        } else {
+            this.passwordHasher = null;
+        }
+        if (configs.isDeltaSyncEnabled()) {
+            this.rowFingerprintStore = RowFingerprintStore.open(Constants.BULK_USER_PROVISION_FINGERPRINT_STORE_PATH,
+                    configs.getTenantDomain(), configs.getSecondaryUserStoreDomain(), caseInsensitiveUsername);
+        } else {
+            this.rowFingerprintStore = null;
+        }
+        int roleBatchSize = configs.getRoleBatchSize() > 0 ? configs.getRoleBatchSize() :
+                Constants.DEFAULT_ROLE_BATCH_SIZE;
+        this.roleAssigner = new RoleAssigner(userStoreManager, roleBatchSize);
+
+        int threadPoolSize = configs.getThreadPoolSize() > 0 ? configs.getThreadPoolSize() :
+                Constants.DEFAULT_BULK_USER_PROVISION_POOL_SIZE;
+        this.inFlightChunks = new Semaphore(threadPoolSize * Constants.IN_FLIGHT_CHUNKS_PER_WORKER);
+        if (configs.isAdaptiveConcurrencyEnabled()) {
+            this.concurrencyLimiter = new ConcurrencyLimiter(configs.getAdaptiveConcurrencyMinLimit(), threadPoolSize,
+                    configs.getAdaptiveConcurrencyTargetLatency(), configs.getAdaptiveConcurrencyMaxErrorRate());
+        } else {
+            this.concurrencyLimiter = null;
+        }
+        this.rateLimiter = new RateLimiter(configs.getMaxUsersPerSecond(), configs.getMaxUsersPerSecondBurst());
+
+        if (configs.isCheckpointEnabled()) {
+            this.progressJournal = ProgressJournal.open(Constants.BULK_USER_PROVISION_JOURNAL_PATH);
+        } else {
+            this.progressJournal = null;
+        }
+        // The caller doesn't get an engine to shut down if the rest fails, so what is already open is closed here.
+        try {
+            this.rejectedRowsWriter = RejectedRowsWriter.start(Constants.BULK_USER_PROVISION_REJECTED_ROWS_DIR_PATH);
+            if (configs.isPipelineEnabled() && configs.isBatchInsertEnabled()) {
+                int cpuThreads = configs.getPipelineCpuThreads() > 0 ? configs.getPipelineCpuThreads() :
+                        Runtime.getRuntime().availableProcessors();
+                this.pipeline = new ProvisioningPipeline(this, cpuThreads, threadPoolSize,
+                        configs.getPipelineQueueSize());
+                this.workers = null;
+                metrics.onPipelineStarted(pipeline.getMapStage(), pipeline.getHashStage(), pipeline.getWriteStage());
+            } else {
+                AtomicInteger threadCount = new AtomicInteger();
+                this.workers = new ForkJoinPool(threadPoolSize, pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("BulkUserProvisionWorker-" + threadCount.incrementAndGet());
+                    return thread;
+                }, null, true);
+                this.pipeline = null;
+            }
+            AtomicInteger rangeReaderCount = new AtomicInteger();
+            this.rangeReaders = Executors.newFixedThreadPool(threadPoolSize, runnable -> {
+                Thread thread = new Thread(runnable, "BulkUserProvisionRangeReader-" +
+                        rangeReaderCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } catch (RuntimeException e) {
+            closeOnFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Load the usernames which already exist in the user store, if the existing user check is enabled. Must be
+     * called before submitting rows.
+     *
+     * @throws BulkUserProvisionServerException If the existing usernames could not be loaded.
+     */
+    public void loadExistingUsers() throws BulkUserProvisionServerException {
+
+        if (configs.isExistingUserCheckEnabled()) {
+            existingUserFilter = ExistingUserFilter.load(bulkUserStoreDAO, userStoreManager, caseInsensitiveUsername);
+        }
+    }
+
+    /**
+     * Scan the usernames of the files for duplicates, if a duplicate username policy is configured. Must be called
+     * before submitting rows. The files are scanned in parallel by the range readers.
+     *
+     * @param files CSV files in the order of their file indexes.
+     * @throws BulkUserProvisionServerException If the files could not be scanned.
+     */
+    public void scanDuplicateUsernames(File[] files) throws BulkUserProvisionServerException {
+
+        if (Constants.DUPLICATE_USERNAME_POLICY_NONE.equals(configs.getDuplicateUsernamePolicy())) {
+            return;
+        }
+        if (files.length > UsernameIndex.MAX_FILES) {
+            log.warn(String.format("%s Duplicate usernames are not checked, as there are more than %s files.",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, UsernameIndex.MAX_FILES));
+            return;
+        }
+        try {
+            duplicateUsernameDetector = DuplicateUsernameDetector.scan(files, configs, caseInsensitiveUsername,
+                    progressJournal, rangeReaders);
+        } catch (InterruptedException e) {
+            // The job checks the interrupt flag before reading the files.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submit a chunk of rows to the workers. Blocks while the engine is paused, or while the maximum number of
+     * chunks are waiting to be provisioned.
+     *
+     * @param fileContext Details of the file the rows belong to.
+     * @param firstRow    Index of the first row of the chunk in the file, starting from zero after the header.
+     * @param userChunk   Rows to provision, with null for the empty lines of the file. The list must not be modified
+     *                    after it is submitted.
+     * @throws InterruptedException If interrupted while paused or while waiting for a free slot.
+     */
+    public void submit(CsvFileContext fileContext, long firstRow, List<String[]> userChunk)
+            throws InterruptedException {
+
+        awaitResumed();
+        inFlightChunks.acquire();
+        UserProvisionTask task = new UserProvisionTask(this, fileContext, firstRow, userChunk);
+        fileContext.getStats().onChunkSubmitted(userChunk.size());
+        rowsRead.add(userChunk.size());
+        metrics.onRowsParsed(userChunk.size());
+        Runnable onCompleted = () -> {
+            inFlightChunks.release();
+            if (fileContext.getCheckpoint() != null) {
+                fileContext.getCheckpoint().onChunkCompleted(firstRow, firstRow + userChunk.size());
+            }
+            fileContext.getStats().onChunkCompleted();
+        };
+        if (pipeline != null) {
+            try {
+                pipeline.submit(task, onCompleted);
+            } catch (InterruptedException | RejectedExecutionException e) {
+                inFlightChunks.release();
+                fileContext.getStats().onChunkCompleted();
+                throw e;
+            }
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error(String.format("%s Unexpected error while provisioning users from file: %s",
+                            Constants.BULK_USER_PROVISION_LOG_PREFIX, fileContext.getFileName()), e);
+                } finally {
+                    onCompleted.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlightChunks.release();
+            fileContext.getStats().onChunkCompleted();
+            throw e;
+        }
+    }
+
+    /**
+     * Wait until all the submitted chunks are provisioned, stop the workers and save the fingerprints of the
+     * provisioned rows.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitCompletion() throws InterruptedException {
+
+        rangeReaders.shutdown();
+        if (pipeline != null) {
+            pipeline.awaitCompletion();
+        } else {
+            workers.shutdown();
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info(String.format("%s Waiting for the provisioning workers to complete. Users added: %s, " +
+                        "failed: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX, usersAdded.sum(), usersFailed.sum()));
+            }
+        }
+        rejectedRowsWriter.close();
+        closeProgressJournal();
+        if (rowFingerprintStore != null) {
+            try {
+                rowFingerprintStore.save();
+            } catch (BulkUserProvisionServerException e) {
+                log.error(String.format("%s Error occurred while saving the row fingerprints. The next job " +
+                        "provisions the changed rows again.", Constants.BULK_USER_PROVISION_LOG_PREFIX), e);
+            }
+        }
+    }
+
+    /**
+     * Stop handing over new chunks to the workers. The readers block at their next chunk, and the chunks which are
+     * already submitted are still provisioned.
+     */
+    public void pause() {
+
+        synchronized (pauseLock) {
+            paused = true;
+        }
+    }
+
+    /**
+     * Continue handing over chunks to the workers.
+     */
+    public void resume() {
+
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+
+        synchronized (pauseLock) {
+            return paused;
+        }
+    }
+
+    private void awaitResumed() throws InterruptedException {
+
+        synchronized (pauseLock) {
+            while (paused) {
+                pauseLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Run the given task inside a tenant flow of the tenant the users are provisioned to.
+     *
+     * @param task Task to run.
+     */
+    public void runInTenantFlow(Runnable task) {
+
+        PrivilegedCarbonContext.startTenantFlow();
+        try {
+            PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantDomain(configs.getTenantDomain());
+            PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId);
+            task.run();
+        } finally {
+            PrivilegedCarbonContext.endTenantFlow();
+        }
+    }
+
+    /**
+     * Stop the workers without waiting for the submitted chunks.
+     */
+    public void shutdownNow() {
+
+        rangeReaders.shutdownNow();
+        if (pipeline != null) {
+            pipeline.shutdownNow();
+        } else {
+            workers.shutdownNow();
+        }
+        rejectedRowsWriter.close();
+        closeProgressJournal();
+    }
+
+    private void closeOnFailure() {
+
+        if (rangeReaders != null) {
+            rangeReaders.shutdownNow();
+        }
+        if (pipeline != null) {
+            pipeline.shutdownNow();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (rejectedRowsWriter != null) {
+            rejectedRowsWriter.close();
+        }
+        closeProgressJournal();
+    }
+
+    private void closeProgressJournal() {
+
+        if (progressJournal != null) {
+            progressJournal.close();
+        }
+    }
+
+    void onUsersAdded(CsvFileContext fileContext, int noOfUsers) {
+
+        usersAdded.add(noOfUsers);
+        fileContext.getStats().onUsersAdded(noOfUsers);
+        metrics.onUsersAdded(noOfUsers);
+    }
+
+    /**
+     * Count a row as failed and write it to the rejects file of its file.
+     *
+     * @param fileContext Details of the file the row belongs to.
+     * @param row         Rejected CSV row.
+     * @param error       Error the row is rejected with.
+     * @param reason      Reason of the rejection.
+     */
+    void onRowRejected(CsvFileContext fileContext, String[] row, Constants.ErrorMessage error, String reason) {
+
+        usersFailed.increment();
+        fileContext.getStats().onUserFailed();
+        metrics.onUserFailed();
+        rejectedRowsWriter.reject(fileContext, row, error, reason);
+    }
+
+    void onUserSkipped(CsvFileContext fileContext) {
+
+        usersSkipped.increment();
+        fileContext.getStats().onUserSkipped();
+        metrics.onUserSkipped();
+    }
+
+    void onUserUpdated(CsvFileContext fileContext) {
+
+        usersUpdated.increment();
+        fileContext.getStats().onUserUpdated();
+        metrics.onUserUpdated();
+    }
+
+    public long getRowsRead() {
+
+        return rowsRead.sum();
+    }
+
+    public long getUsersAdded() {
+
+        return usersAdded.sum();
+    }
+
+    public long getUsersFailed() {
+
+        return usersFailed.sum();
+    }
+
+    public long getUsersSkipped() {
+
+        return usersSkipped.sum();
+    }
+
+    public long getUsersUpdated() {
+
+        return usersUpdated.sum();
+    }
+
+    public BulkUserProvisionMetrics getMetrics() {
+
+        return metrics;
+    }
+
+    public ConfigurationsDTO getConfigs() {
+
+        return configs;
+    }
+
+    public UniqueIDJDBCUserStoreManager getUserStoreManager() {
+
+        return userStoreManager;
+    }
+
+    /**
+     * @return DAO of the user store, or null if neither batch insert nor the existing user check is enabled.
+     */
+    public BulkUserStoreDAO getBulkUserStoreDAO() {
+
+        return bulkUserStoreDAO;
+    }
+
+    public PasswordHasher getPasswordHasher() {
+
+        return passwordHasher;
+    }
+
+    /**
+     * @return Filter of the existing users, or null if the existing user check is not enabled.
+     */
+    public ExistingUserFilter getExistingUserFilter() {
+
+        return existingUserFilter;
+    }
+
+    /**
+     * @return Fingerprints of the rows provisioned by the last completed job, or null if delta sync is not enabled.
+     */
+    public RowFingerprintStore getRowFingerprintStore() {
+
+        return rowFingerprintStore;
+    }
+
+    /**
+     * @return Detector of the duplicated usernames, or null if duplicate usernames are not checked.
+     */
+    public DuplicateUsernameDetector getDuplicateUsernameDetector() {
+
+        return duplicateUsernameDetector;
+    }
+
+    /**
+     * @return Limiter of the concurrent user store writes, or null if adaptive concurrency is not enabled.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @return Executor reading the byte ranges of the files which are split.
+     */
+    public ExecutorService getRangeReaders() {
+
+        return rangeReaders;
+    }
+
+    /**
+     * @return Provisioning pipeline, or null if the chunks are provisioned by the work stealing pool.
+     */
+    public ProvisioningPipeline getPipeline() {
+
+        return pipeline;
+    }
+
+    /**
+     * @return Limiter of the users provisioned per second, shared by all the workers and adjustable at runtime.
+     */
+    public RateLimiter getRateLimiter() {
+
+        return rateLimiter;
+    }
+
+    public RoleAssigner getRoleAssigner() {
+
+        return roleAssigner;
+    }
+
+    /**
+     * @return Progress journal or null if checkpointing is not enabled.
+     */
+    public ProgressJournal getProgressJournal() {
+
+        return progressJournal;
+    }
+
+    public int getTenantId() {
+
+        return tenantId;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Provisions chunks through the map, hash and write stages, so that the claim mapping and the password hashing run
+ * on threads sized to the CPUs while the user store writes run on threads sized to the database connections. The
+ * readers of the files form the parse stage in front of the pipeline. The pipeline is only used in batch insert
+ * mode, as in the other modes the user store hashes the passwords while adding the users, which would leave the
+ * hash stage idle and the hashing on the write threads.
+ */
+public class ProvisioningPipeline {
+
+    private static final Log log = LogFactory.getLog(ProvisioningPipeline.class);
+
+    private final ProvisioningEngine engine;
+    private final PipelineStage mapStage;
+    private final PipelineStage hashStage;
+    private final PipelineStage writeStage;
+
+    public ProvisioningPipeline(ProvisioningEngine engine, int cpuThreads, int writeThreads, int queueSize) {
+
+        this.engine = engine;
+        this.mapStage = new PipelineStage("Map", cpuThreads, queueSize);
+        this.hashStage = new PipelineStage("Hash", cpuThreads, queueSize);
+        this.writeStage = new PipelineStage("Write", writeThreads, queueSize);
+    }
+
+    /**
+     * Submit a chunk to the pipeline. Blocks while the map stage is full.
+     *
+     * @param task        Chunk to provision.
+     * @param onCompleted Called once the chunk leaves the pipeline, whether it was provisioned or not.
+     * @throws InterruptedException If interrupted while waiting for the map stage.
+     */
+    public void submit(UserProvisionTask task, Runnable onCompleted) throws InterruptedException {
+
+        Runnable completeOnce = completeOnce(onCompleted);
+        mapStage.submit(() -> runStage(task, completeOnce, () -> {
+            if (!task.map()) {
+                completeOnce.run();
+                return;
+            }
+            submitToStage(hashStage, task, completeOnce, () -> {
+                task.hash();
+                submitToStage(writeStage, task, completeOnce, () -> {
+                    engine.runInTenantFlow(task::write);
+                    completeOnce.run();
+                });
+            });
+        }));
+    }
+
+    /**
+     * Wait for the chunks in the pipeline to be provisioned and stop the stages, one after the other, as the chunks
+     * only flow forward.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitCompletion() throws InterruptedException {
+
+        for (PipelineStage stage : new PipelineStage[]{mapStage, hashStage, writeStage}) {
+            while (!stage.shutdownAndAwait(Constants.PIPELINE_STAGE_AWAIT_INTERVAL)) {
+                log.info(String.format("%s Waiting for the provisioning pipeline to complete. %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, this));
+            }
+        }
+        log.info(String.format("%s Provisioning pipeline completed. %s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                this));
+    }
+
+    /**
+     * Stop the stages without waiting for the chunks in the pipeline.
+     */
+    public void shutdownNow() {
+
+        mapStage.shutdownNow();
+        hashStage.shutdownNow();
+        writeStage.shutdownNow();
+    }
+
+    public PipelineStage getMapStage() {
+
+        return mapStage;
+    }
+
+    public PipelineStage getHashStage() {
+
+        return hashStage;
+    }
+
+    public PipelineStage getWriteStage() {
+
+        return writeStage;
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format("Stages: %s, %s, %s", mapStage, hashStage, writeStage);
+    }
+
+    /**
+     * Hand a chunk over to the next stage. If the thread is interrupted while waiting, the chunk leaves the
+     * pipeline.
+     */
+    private void submitToStage(PipelineStage stage, UserProvisionTask task, Runnable onCompleted, Runnable work) {
+
+        try {
+            stage.submit(() -> runStage(task, onCompleted, work));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            onCompleted.run();
+        }
+    }
+
+    /**
+     * Wrap the completion of a chunk so that it runs only once. A stage which fails after completing the chunk, or
+     * whose completion itself fails, would otherwise complete it again and free its slot twice.
+     */
+    private static Runnable completeOnce(Runnable onCompleted) {
+
+        AtomicBoolean completed = new AtomicBoolean();
+        return () -> {
+            if (completed.compareAndSet(false, true)) {
+                onCompleted.run();
+            }
+        };
+    }
+
+    /**
+     * Run the work of a stage on a chunk. The work either hands the chunk over to the next stage or completes it,
+     * and if it fails the chunk leaves the pipeline.
+     */
+    private void runStage(UserProvisionTask task, Runnable onCompleted, Runnable work) {
+
+        try {
+            work.run();
+        } catch (RuntimeException e) {
+            log.error(String.format("%s Unexpected error while provisioning users from file: %s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, task.getFileContext().getFileName()), e);
+            onCompleted.run();
+        }
+    }
+}
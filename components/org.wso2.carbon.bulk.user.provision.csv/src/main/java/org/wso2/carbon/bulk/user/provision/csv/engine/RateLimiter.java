@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket limiting the users provisioned per second across all the workers, implemented as a generic cell rate
+ * algorithm. The only shared state is the theoretical arrival time of the next user, which a worker advances with a
+ * single compare and set to reserve its users, and then waits for its reservation without holding anything. Up to
+ * the burst number of users are let through without waiting after an idle period. The rate can be changed at
+ * runtime, and a rate of zero or less disables the limit.
+ */
+public class RateLimiter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    private volatile Rate rate;
+
+    public RateLimiter(double usersPerSecond, int burst) {
+
+        setRate(usersPerSecond, burst);
+    }
+
+    /**
+     * Change the rate of the limiter. Reservations which are already made keep their wait time.
+     *
+     * @param usersPerSecond Maximum users per second, or zero or less for no limit.
+     * @param burst          Users let through without waiting after an idle period. At least one.
+     */
+    public void setRate(double usersPerSecond, int burst) {
+
+        rate = usersPerSecond > 0 ? new Rate(usersPerSecond, Math.max(1, burst)) : null;
+    }
+
+    /**
+     * @return Maximum users per second, or zero if there is no limit.
+     */
+    public double getUsersPerSecond() {
+
+        Rate currentRate = rate;
+        return currentRate == null ? 0 : currentRate.usersPerSecond;
+    }
+
+    /**
+     * @return Users let through without waiting after an idle period, or zero if there is no limit.
+     */
+    public int getBurst() {
+
+        Rate currentRate = rate;
+        return currentRate == null ? 0 : currentRate.burst;
+    }
+
+    /**
+     * Wait until the given number of users can be provisioned. Returns early if the thread is interrupted.
+     *
+     * @param noOfUsers Number of users to provision.
+     */
+    public void acquire(int noOfUsers) {
+
+        Rate currentRate = rate;
+        if (currentRate == null || noOfUsers <= 0) {
+            return;
+        }
+        long now;
+        long start;
+        while (true) {
+            now = System.nanoTime();
+            long arrivalTime = theoreticalArrivalTime.get();
+            start = Math.max(arrivalTime, now);
+            if (theoreticalArrivalTime.compareAndSet(arrivalTime, start + noOfUsers * currentRate.intervalNanos)) {
+                break;
+            }
+        }
+        long deadline = start - currentRate.burstToleranceNanos;
+        long waitTime = deadline - now;
+        while (waitTime > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this, waitTime);
+            waitTime = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Rate of the limiter, replaced as a whole when the rate changes.
+     */
+    private static class Rate {
+
+        private final double usersPerSecond;
+        private final int burst;
+        private final long intervalNanos;
+        private final long burstToleranceNanos;
+
+        private Rate(double usersPerSecond, int burst) {
+
+            this.usersPerSecond = usersPerSecond;
+            this.burst = burst;
+            this.intervalNanos = Math.max(1, (long) (NANOS_PER_SECOND / usersPerSecond));
+            this.burstToleranceNanos = intervalNanos * (burst - 1);
+        }
+    }
+}
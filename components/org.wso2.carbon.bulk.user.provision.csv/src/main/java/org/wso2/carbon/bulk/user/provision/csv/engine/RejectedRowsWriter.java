@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the rows which could not be provisioned to a rejects CSV file per source file, with the error code and the
+ * reason appended to each row. The rows are written by a dedicated thread through a bounded queue, so the workers
+ * never wait on the disk or the log for a failed row. Only a periodic summary of the rejected rows is logged. A
+ * rejects file keeps the header of its source file, so that it can be fixed and dropped back into the CSV folder.
+ */
+public class RejectedRowsWriter implements Runnable {
+
+    private static final Log log = LogFactory.getLog(RejectedRowsWriter.class);
+
+    private static final RejectedRow END_OF_ROWS = new RejectedRow(null, null, null, null);
+
+    private final Path rejectedRowsDir;
+    private final String runId = String.valueOf(System.currentTimeMillis());
+    private final BlockingQueue<RejectedRow> queue = new ArrayBlockingQueue<>(Constants.REJECTED_ROWS_QUEUE_SIZE);
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    // Only accessed by the writer thread. A file maps to null if its rejects file could not be created.
+    private final Map<String, CSVWriter> writers = new HashMap<>();
+    private final Map<String, Long> rejectedRowsByErrorCode = new TreeMap<>();
+    private long rejectedRows;
+    private long rejectedRowsAtLastSummary;
+
+    private RejectedRowsWriter(Path rejectedRowsDir) {
+
+        this.rejectedRowsDir = rejectedRowsDir;
+        this.writerThread = new Thread(this, "BulkUserProvisionRejectedRowsWriter");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Start a writer of the rejected rows.
+     *
+     * @param rejectedRowsDir Folder to write the rejects files to. Created when the first row is rejected.
+     * @return Started writer.
+     */
+    public static RejectedRowsWriter start(Path rejectedRowsDir) {
+
+        RejectedRowsWriter rejectedRowsWriter = new RejectedRowsWriter(rejectedRowsDir);
+        rejectedRowsWriter.writerThread.start();
+        return rejectedRowsWriter;
+    }
+
+    /**
+     * Queue a rejected row to be written. Blocks only while the queue is full.
+     *
+     * @param fileContext Details of the file the row belongs to.
+     * @param row         Rejected CSV row.
+     * @param error       Error the row is rejected with.
+     * @param reason      Reason of the rejection.
+     */
+    public void reject(CsvFileContext fileContext, String[] row, Constants.ErrorMessage error, String reason) {
+
+        if (closed) {
+            log.warn(String.format("%s Rejected row of file: %s is not written, as the writer is closed. " +
+                            "Error: %s:%s", Constants.BULK_USER_PROVISION_LOG_PREFIX, fileContext.getFileName(),
+                    error.getCode(), reason));
+            return;
+        }
+        try {
+            queue.put(new RejectedRow(fileContext, row, error, reason));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(String.format("%s Interrupted while writing a rejected row of file: %s. Error: %s:%s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, fileContext.getFileName(), error.getCode(), reason));
+        }
+    }
+
+    /**
+     * Write the queued rows, close the rejects files and log the final summary. Must be called once all the rows
+     * are provisioned.
+     */
+    public void close() {
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(END_OF_ROWS);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(String.format("%s Interrupted while closing the rejected rows writer.",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX));
+        }
+    }
+
+    @Override
+    public void run() {
+
+        long nextSummaryTime = System.currentTimeMillis() + Constants.REJECTED_ROWS_SUMMARY_INTERVAL;
+        try {
+            while (true) {
+                long timeout = Math.max(0, nextSummaryTime - System.currentTimeMillis());
+                RejectedRow rejectedRow = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                if (rejectedRow == END_OF_ROWS) {
+                    break;
+                }
+                if (rejectedRow != null) {
+                    write(rejectedRow);
+                    if (queue.isEmpty()) {
+                        flush();
+                    }
+                }
+                if (System.currentTimeMillis() >= nextSummaryTime) {
+                    logSummary();
+                    nextSummaryTime = System.currentTimeMillis() + Constants.REJECTED_ROWS_SUMMARY_INTERVAL;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeWriters();
+            logSummary();
+        }
+    }
+
+    private void write(RejectedRow rejectedRow) {
+
+        rejectedRows++;
+        rejectedRowsByErrorCode.merge(rejectedRow.error.getCode(), 1L, Long::sum);
+
+        String fileName = rejectedRow.fileContext.getFileName();
+        String[] columnNames = rejectedRow.fileContext.getProjectionPlan().getColumnNames();
+        // A rejects file dropped back into the CSV folder already has the error columns, which are replaced.
+        int noOfColumns = getNoOfDataColumns(columnNames);
+        if (!writers.containsKey(fileName)) {
+            writers.put(fileName, open(fileName, columnNames, noOfColumns));
+        }
+        CSVWriter csvWriter = writers.get(fileName);
+        if (csvWriter == null) {
+            return;
+        }
+        String[] row = Arrays.copyOf(rejectedRow.row, noOfColumns + 2);
+        row[noOfColumns] = rejectedRow.error.getCode();
+        row[noOfColumns + 1] = rejectedRow.reason;
+        csvWriter.writeNext(row);
+    }
+
+    private CSVWriter open(String fileName, String[] columnNames, int noOfColumns) {
+
+        Path rejectsFile = rejectedRowsDir.resolve(Utils.getCsvBaseName(fileName) +
+                Constants.REJECTED_ROWS_FILE_SUFFIX + runId + Constants.FILE_TYPE_CSV);
+        try {
+            Files.createDirectories(rejectedRowsDir);
+            CSVWriter csvWriter = new CSVWriter(new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(rejectsFile), StandardCharsets.UTF_8)), Constants.COMMA,
+                    Constants.DOUBLE_QUOTE);
+            String[] header = Arrays.copyOf(columnNames, noOfColumns + 2);
+            header[noOfColumns] = Constants.REJECTED_ROWS_ERROR_CODE_COLUMN;
+            header[noOfColumns + 1] = Constants.REJECTED_ROWS_ERROR_REASON_COLUMN;
+            csvWriter.writeNext(header);
+            log.info(String.format("%s Writing the rejected rows of file: %s to: %s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, fileName, rejectsFile));
+            return csvWriter;
+        } catch (IOException e) {
+            log.error(String.format("%s Error occurred while creating the rejects file: %s:%s:%s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, rejectsFile,
+                    Constants.ErrorMessage.SERVER_REJECTED_ROWS_WRITE_ERROR.getCode(),
+                    Constants.ErrorMessage.SERVER_REJECTED_ROWS_WRITE_ERROR.getMessage()), e);
+            // The rejected rows of the file are still counted in the summary.
+            return null;
+        }
+    }
+
+    private static int getNoOfDataColumns(String[] columnNames) {
+
+        int noOfColumns = columnNames.length;
+        if (noOfColumns >= 2 &&
+                Constants.REJECTED_ROWS_ERROR_CODE_COLUMN.equals(columnNames[noOfColumns - 2]) &&
+                Constants.REJECTED_ROWS_ERROR_REASON_COLUMN.equals(columnNames[noOfColumns - 1])) {
+            return noOfColumns - 2;
+        }
+        return noOfColumns;
+    }
+
+    private void flush() {
+
+        for (Map.Entry<String, CSVWriter> writer : writers.entrySet()) {
+            if (writer.getValue() == null) {
+                continue;
+            }
+            try {
+                writer.getValue().flush();
+            } catch (IOException e) {
+                log.error(String.format("%s Error occurred while writing the rejected rows of file: %s:%s:%s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, writer.getKey(),
+                        Constants.ErrorMessage.SERVER_REJECTED_ROWS_WRITE_ERROR.getCode(),
+                        Constants.ErrorMessage.SERVER_REJECTED_ROWS_WRITE_ERROR.getMessage()), e);
+            }
+        }
+    }
+
+    private void closeWriters() {
+
+        for (Map.Entry<String, CSVWriter> writer : writers.entrySet()) {
+            if (writer.getValue() == null) {
+                continue;
+            }
+            try {
+                writer.getValue().close();
+            } catch (IOException e) {
+                log.error(String.format("%s Error occurred while closing the rejects file of file: %s:%s:%s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, writer.getKey(),
+                        Constants.ErrorMessage.SERVER_REJECTED_ROWS_WRITE_ERROR.getCode(),
+                        Constants.ErrorMessage.SERVER_REJECTED_ROWS_WRITE_ERROR.getMessage()), e);
+            }
+        }
+        writers.clear();
+    }
+
+    private void logSummary() {
+
+        if (rejectedRows == rejectedRowsAtLastSummary) {
+            return;
+        }
+        log.warn(String.format("%s Rejected rows: %s since the last summary, %s in total. Rejected rows by error " +
+                        "code: %s. Rejected rows are written to: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                rejectedRows - rejectedRowsAtLastSummary, rejectedRows, rejectedRowsByErrorCode, rejectedRowsDir));
+        rejectedRowsAtLastSummary = rejectedRows;
+    }
+
+    /**
+     * A row which could not be provisioned.
+     */
+    private static class RejectedRow {
+
+        private final CsvFileContext fileContext;
+        private final String[] row;
+        private final Constants.ErrorMessage error;
+        private final String reason;
+
+        private RejectedRow(CsvFileContext fileContext, String[] row, Constants.ErrorMessage error, String reason) {
+
+            this.fileContext = fileContext;
+            this.row = row;
+            this.error = error;
+            this.reason = reason;
+        }
+    }
+}
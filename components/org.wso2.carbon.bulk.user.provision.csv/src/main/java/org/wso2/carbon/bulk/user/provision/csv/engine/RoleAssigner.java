@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.jdbc.UniqueIDJDBCUserStoreManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns roles to the provisioned users once the users of a chunk are added. Usernames are grouped by role and each
+ * group is added to its role with a single role membership update, so that a role is resolved once per batch instead
+ * of once per user.
+ */
+public class RoleAssigner {
+
+    private static final Log log = LogFactory.getLog(RoleAssigner.class);
+    private static final String[] NO_USERS = new String[0];
+
+    private final UniqueIDJDBCUserStoreManager userStoreManager;
+    private final int roleBatchSize;
+
+    public RoleAssigner(UniqueIDJDBCUserStoreManager userStoreManager, int roleBatchSize) {
+
+        this.userStoreManager = userStoreManager;
+        this.roleBatchSize = roleBatchSize;
+    }
+
+    /**
+     * Assign the roles of the users of a chunk, in batches of roleBatchSize users per role. Must be called inside
+     * the tenant flow, before the chunk is committed to the progress journal, so that a resumed job never skips users
+     * whose roles were not assigned.
+     *
+     * @param usersOfRoles Usernames of the added users, grouped by role.
+     */
+    public void assignRoles(Map<String, List<String>> usersOfRoles) {
+
+        for (Map.Entry<String, List<String>> entry : usersOfRoles.entrySet()) {
+            List<String> usernames = entry.getValue();
+            for (int from = 0; from < usernames.size(); from += roleBatchSize) {
+                assignRole(entry.getKey(), usernames.subList(from, Math.min(usernames.size(), from + roleBatchSize)));
+            }
+        }
+    }
+
+    private void assignRole(String role, List<String> usernames) {
+
+        try {
+            userStoreManager.updateUserListOfRole(role, NO_USERS, usernames.toArray(new String[0]));
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("%s Assigned role: %s to %s users.", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                        role, usernames.size()));
+            }
+        } catch (UserStoreException e) {
+            if (usernames.size() == 1) {
+                log.error(String.format("%s Error occurred while assigning role: %s to the user: %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, role, usernames.get(0)), e);
+                return;
+            }
+            // Retry one by one to find out which of the users failed.
+            log.warn(String.format("%s Error occurred while assigning role: %s to a batch of %s users. Retrying " +
+                    "the users one by one.", Constants.BULK_USER_PROVISION_LOG_PREFIX, role, usernames.size()), e);
+            for (String username : usernames) {
+                assignRole(role, Collections.singletonList(username));
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionServerException;
+import org.wso2.carbon.bulk.user.provision.csv.util.HashUtils;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * On-disk store of a fingerprint of the last provisioned row of each username, so that a re-import of a full export
+ * only writes the rows which changed since the last run. The store is loaded into memory once per job and only read
+ * while the rows are provisioned. The fingerprints of the rows written during the job are collected separately and
+ * merged into the store when the job completes, so the store is only replaced by a job which ran to its end.
+ *
+ * Usernames are kept as 64-bit hashes, so the store takes 16 bytes per user on the disk.
+ */
+public class RowFingerprintStore {
+
+    /**
+     * Fingerprint of a username which is not in the store.
+     */
+    public static final long NO_FINGERPRINT = 0L;
+
+    private static final Log log = LogFactory.getLog(RowFingerprintStore.class);
+    private static final int MAGIC = 0x42555046;
+    private static final int VERSION = 1;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path storePath;
+    private final String storeDomain;
+    private final boolean caseInsensitiveUsername;
+    private long[] keys;
+    private long[] fingerprints;
+    private int size;
+    private int mask;
+    // Fingerprints recorded during the job, as username hash and fingerprint pairs.
+    private long[] recorded = new long[1024];
+    private int recordedSize;
+    private final LongAdder unchangedRows = new LongAdder();
+
+    private RowFingerprintStore(Path storePath, String storeDomain, boolean caseInsensitiveUsername,
+                                int initialCapacity) {
+
+        this.storePath = storePath;
+        this.storeDomain = storeDomain;
+        this.caseInsensitiveUsername = caseInsensitiveUsername;
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (initialCapacity / MAX_LOAD_FACTOR))) << 1;
+        this.keys = new long[capacity];
+        this.fingerprints = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Load the store at the given path. A store which doesn't exist, is damaged or belongs to another tenant or user
+     * store is started empty, so that all the rows are provisioned.
+     *
+     * @param storePath               Path of the store file.
+     * @param tenantDomain            Tenant domain the users are provisioned to.
+     * @param userStore               Domain of the user store the users are provisioned to.
+     * @param caseInsensitiveUsername Whether the user store ignores the case of the usernames.
+     * @return Fingerprint store.
+     */
+    public static RowFingerprintStore open(Path storePath, String tenantDomain, String userStore,
+                                           boolean caseInsensitiveUsername) {
+
+        long startingTime = System.currentTimeMillis();
+        String storeDomain = tenantDomain + "/" + (userStore != null ? userStore : "");
+        if (!Files.exists(storePath)) {
+            return new RowFingerprintStore(storePath, storeDomain, caseInsensitiveUsername, 0);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(storePath),
+                BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn(String.format("%s Ignoring the row fingerprint store: %s of an unknown format. All the " +
+                        "rows are provisioned.", Constants.BULK_USER_PROVISION_LOG_PREFIX, storePath));
+                return new RowFingerprintStore(storePath, storeDomain, caseInsensitiveUsername, 0);
+            }
+            String domain = in.readUTF();
+            if (!storeDomain.equals(domain)) {
+                log.warn(String.format("%s Ignoring the row fingerprint store: %s of user store: %s. All the rows " +
+                                "are provisioned to user store: %s.", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                        storePath, domain, storeDomain));
+                return new RowFingerprintStore(storePath, storeDomain, caseInsensitiveUsername, 0);
+            }
+            int noOfEntries = in.readInt();
+            RowFingerprintStore store = new RowFingerprintStore(storePath, storeDomain, caseInsensitiveUsername,
+                    noOfEntries);
+            for (int i = 0; i < noOfEntries; i++) {
+                store.put(in.readLong(), in.readLong());
+            }
+            log.info(String.format("%s Loaded %s row fingerprints from: %s in %s ms.",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, store.size, storePath,
+                    (System.currentTimeMillis() - startingTime)));
+            return store;
+        } catch (IOException e) {
+            log.warn(String.format("%s %s:%s All the rows are provisioned.", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                    Constants.ErrorMessage.SERVER_FINGERPRINT_STORE_ERROR.getCode(), String.format(
+                            Constants.ErrorMessage.SERVER_FINGERPRINT_STORE_ERROR.getDescription(), storePath)), e);
+            return new RowFingerprintStore(storePath, storeDomain, caseInsensitiveUsername, 0);
+        }
+    }
+
+    /**
+     * Fingerprint of the row of a username provisioned by the last completed job. Safe to call from any worker, as
+     * the loaded fingerprints are not modified until the job completes.
+     *
+     * @param username Username.
+     * @return Fingerprint or NO_FINGERPRINT if the username was not provisioned before.
+     */
+    public long getFingerprint(String username) {
+
+        long key = getKey(username);
+        return fingerprints[findSlot(key)];
+    }
+
+    /**
+     * Count a row which is skipped as its fingerprint didn't change.
+     */
+    public void onRowUnchanged() {
+
+        unchangedRows.increment();
+    }
+
+    /**
+     * Record the fingerprint of a row which is written to the user store.
+     *
+     * @param username    Username of the row.
+     * @param fingerprint Fingerprint of the row.
+     */
+    public synchronized void record(String username, long fingerprint) {
+
+        if (recordedSize == recorded.length) {
+            recorded = Arrays.copyOf(recorded, recorded.length << 1);
+        }
+        recorded[recordedSize++] = getKey(username);
+        recorded[recordedSize++] = fingerprint;
+    }
+
+    /**
+     * Merge the fingerprints recorded during the job into the store, and replace the store file. Must be called
+     * once the workers are done. Usernames which are not in the provisioned files keep their fingerprints.
+     *
+     * @throws BulkUserProvisionServerException If the store could not be written.
+     */
+    public synchronized void save() throws BulkUserProvisionServerException {
+
+        for (int i = 0; i < recordedSize; i += 2) {
+            put(recorded[i], recorded[i + 1]);
+        }
+        log.info(String.format("%s Saving %s row fingerprints to: %s. Rows written: %s, unchanged: %s.",
+                Constants.BULK_USER_PROVISION_LOG_PREFIX, size, storePath, recordedSize / 2, unchangedRows.sum()));
+        recorded = new long[1024];
+        recordedSize = 0;
+
+        Path tempPath = storePath.resolveSibling(storePath.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempPath.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(storeDomain);
+                out.writeInt(size);
+                for (int slot = 0; slot < keys.length; slot++) {
+                    if (fingerprints[slot] != NO_FINGERPRINT) {
+                        out.writeLong(keys[slot]);
+                        out.writeLong(fingerprints[slot]);
+                    }
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Files.move(tempPath, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw Utils.handleServerException(Constants.ErrorMessage.SERVER_FINGERPRINT_STORE_ERROR,
+                    storePath.toString(), e);
+        }
+    }
+
+    /**
+     * @return Number of usernames in the store.
+     */
+    public synchronized int size() {
+
+        return size;
+    }
+
+    private void put(long key, long fingerprint) {
+
+        if (fingerprint == NO_FINGERPRINT) {
+            return;
+        }
+        int slot = findSlot(key);
+        if (fingerprints[slot] == NO_FINGERPRINT) {
+            if (++size > keys.length * MAX_LOAD_FACTOR) {
+                resize();
+                slot = findSlot(key);
+            }
+            keys[slot] = key;
+        }
+        fingerprints[slot] = fingerprint;
+    }
+
+    private int findSlot(long key) {
+
+        int slot = (int) HashUtils.mix64(key) & mask;
+        while (fingerprints[slot] != NO_FINGERPRINT && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+
+        long[] oldKeys = keys;
+        long[] oldFingerprints = fingerprints;
+        keys = new long[oldKeys.length << 1];
+        fingerprints = new long[oldFingerprints.length << 1];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldFingerprints[i] != NO_FINGERPRINT) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                fingerprints[slot] = oldFingerprints[i];
+            }
+        }
+    }
+
+    private long getKey(String username) {
+
+        return HashUtils.hash64(HashUtils.normalize(username, caseInsensitiveUsername));
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dao.BulkUserStoreDAO;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionServerException;
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adds a chunk of CSV rows to the user store. Each task runs inside its own tenant flow, as the carbon context is
+ * thread local and the worker threads are shared between chunks. In batch insert mode the whole chunk is written in
+ * a single transaction, and the users are retried one by one only if the batch fails. Roles are not assigned while
+ * adding a user, but grouped by role and assigned once the users of the chunk are added.
+ *
+ * The task is split into the map, hash and write steps, which either run on a single worker, or as the stages of
+ * the provisioning pipeline. On a single worker the passwords are hashed by the write step, after the existing
+ * users are filtered out. Only the write step needs the tenant flow.
+ *
+ * In delta sync mode the map step leaves out the rows whose claims and roles didn't change since the last completed
+ * job, and the write step applies the changed rows as claim updates without checking whether the users exist. The
+ * users which were deleted outside the import since then are added again, whether their rows changed or not. In
+ * upsert mode the claims of the users which might exist are updated in a single batch, and the users which are not
+ * found are added with the new users. Updated users are given the roles of their rows which they don't have yet, but
+ * keep their other roles, as those may have been assigned outside the import.
+ */
+public class UserProvisionTask implements Runnable {
+
+    private static final Log log = LogFactory.getLog(UserProvisionTask.class);
+
+    private final ProvisioningEngine engine;
+    private final CsvFileContext fileContext;
+    private final long firstRow;
+    private final List<String[]> userChunk;
+    // Users read from the chunk, set by the map step.
+    private List<UserRecord> users = Collections.emptyList();
+    // Usernames of the added users grouped by role, set by the write step.
+    private final Map<String, List<String>> usersOfRoles = new LinkedHashMap<>();
+
+    public UserProvisionTask(ProvisioningEngine engine, CsvFileContext fileContext, long firstRow,
+                             List<String[]> userChunk) {
+
+        this.engine = engine;
+        this.fileContext = fileContext;
+        this.firstRow = firstRow;
+        this.userChunk = userChunk;
+    }
+
+    @Override
+    public void run() {
+
+        if (map()) {
+            engine.runInTenantFlow(this::write);
+        }
+    }
+
+    CsvFileContext getFileContext() {
+
+        return fileContext;
+    }
+
+    /**
+     * Map the rows to users, leaving out the rows which are rejected, duplicated, or unchanged since the last job in
+     * delta sync mode.
+     *
+     * @return True if there are users to write.
+     */
+    boolean map() {
+
+        ConfigurationsDTO configs = engine.getConfigs();
+        ProjectionPlan projectionPlan = fileContext.getProjectionPlan();
+        int usernameColumnIndex = projectionPlan.getUsernameColumnIndex();
+        int passwordColumnIndex = projectionPlan.getPasswordColumnIndex();
+        int roleColumnIndex = projectionPlan.getRoleColumnIndex();
+        boolean preHashedPasswords = configs.isPreHashedPasswordsEnabled();
+
+        DuplicateUsernameDetector duplicateUsernameDetector = engine.getDuplicateUsernameDetector();
+        RowFingerprintStore rowFingerprintStore = engine.getRowFingerprintStore();
+        List<UserRecord> users = new ArrayList<>(userChunk.size());
+        for (int row = 0; row < userChunk.size(); row++) {
+            String[] user = userChunk.get(row);
+            String username = ProjectionPlan.getValue(user, usernameColumnIndex);
+            if (StringUtils.isEmpty(username)) {
+                if (user != null) {
+                    engine.onRowRejected(fileContext, user, Constants.ErrorMessage.CLIENT_EMPTY_USERNAME,
+                            Constants.ErrorMessage.CLIENT_EMPTY_USERNAME.getDescription());
+                }
+                continue;
+            }
+            if (duplicateUsernameDetector != null &&
+                    duplicateUsernameDetector.isDuplicate(username, fileContext.getFileIndex(), firstRow + row)) {
+                engine.onRowRejected(fileContext, user, Constants.ErrorMessage.CLIENT_DUPLICATE_USERNAME,
+                        String.format(Constants.ErrorMessage.CLIENT_DUPLICATE_USERNAME.getDescription(), username));
+                continue;
+            }
+            long fingerprint = RowFingerprintStore.NO_FINGERPRINT;
+            boolean changed = false;
+            if (rowFingerprintStore != null) {
+                fingerprint = projectionPlan.getFingerprint(user);
+                long previousFingerprint = rowFingerprintStore.getFingerprint(username);
+                if (previousFingerprint != RowFingerprintStore.NO_FINGERPRINT &&
+                        engine.getExistingUserFilter() != null &&
+                        !engine.getExistingUserFilter().mightBeExistingUser(username)) {
+                    // Deleted since the last job, so the row is added as a new user.
+                    previousFingerprint = RowFingerprintStore.NO_FINGERPRINT;
+                }
+                if (fingerprint == previousFingerprint) {
+                    rowFingerprintStore.onRowUnchanged();
+                    engine.onUserSkipped(fileContext);
+                    continue;
+                }
+                changed = previousFingerprint != RowFingerprintStore.NO_FINGERPRINT;
+            }
+            String[] roles = null;
+            String role = ProjectionPlan.getValue(user, roleColumnIndex);
+            if (StringUtils.isNotBlank(role)) {
+                roles = StringUtils.stripAll(StringUtils.split(role, configs.getRoleSeparator()));
+            }
+            String password = ProjectionPlan.getValue(user, passwordColumnIndex);
+            UserRecord userRecord = new UserRecord(user, username, preHashedPasswords ? null : password, roles,
+                    projectionPlan.getClaims(user));
+            if (preHashedPasswords) {
+                String reason = engine.getPasswordHasher().setPasswordHash(userRecord, password,
+                        ProjectionPlan.getValue(user, projectionPlan.getSaltColumnIndex()));
+                if (reason != null) {
+                    engine.onRowRejected(fileContext, user, Constants.ErrorMessage.CLIENT_INVALID_PASSWORD_HASH,
+                            String.format(Constants.ErrorMessage.CLIENT_INVALID_PASSWORD_HASH.getDescription(),
+                                    username, reason));
+                    continue;
+                }
+            }
+            userRecord.setFingerprint(fingerprint);
+            userRecord.setChanged(changed);
+            users.add(userRecord);
+        }
+        this.users = users;
+        return !users.isEmpty();
+    }
+
+    /**
+     * Hash the passwords of the users to add in batch insert mode. In the other modes the user store hashes the
+     * passwords while adding the users. The users which are expected to be updated are left to the write step, which
+     * hashes the passwords of the ones which turn out not to exist.
+     */
+    void hash() {
+
+        boolean upsert = isUpsertEnabled();
+        List<UserRecord> newUsers = new ArrayList<>(users.size());
+        for (UserRecord user : users) {
+            if (!user.isChanged() &&
+                    !(upsert && engine.getExistingUserFilter().mightBeExistingUser(user.getUsername()))) {
+                newUsers.add(user);
+            }
+        }
+        hashPasswords(newUsers);
+    }
+
+    /**
+     * Skip or update the existing users, add the new users and assign their roles. Must run inside the tenant flow.
+     * The roles are assigned before the chunk is completed, so that the progress journal never covers users whose
+     * roles are not assigned.
+     */
+    void write() {
+
+        try {
+            writeUsers();
+        } finally {
+            engine.getRoleAssigner().assignRoles(usersOfRoles);
+            usersOfRoles.clear();
+        }
+    }
+
+    private void writeUsers() {
+
+        List<UserRecord> users = this.users;
+        if (isUpsertEnabled()) {
+            users = upsertExistingUsers(users);
+        } else {
+            if (engine.getRowFingerprintStore() != null) {
+                users = updateChangedUsers(users);
+            }
+            if (engine.getExistingUserFilter() != null) {
+                users = filterExistingUsers(users, engine.getConfigs(), false);
+            }
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+
+        BulkUserStoreDAO bulkUserStoreDAO = engine.getBulkUserStoreDAO();
+        if (engine.getConfigs().isBatchInsertEnabled()) {
+            try {
+                hashPasswords(users);
+                acquireWrite(users.size());
+                long startTime = System.nanoTime();
+                boolean succeeded = false;
+                try {
+                    bulkUserStoreDAO.addUsers(users);
+                    succeeded = true;
+                } finally {
+                    releaseWrite(System.nanoTime() - startTime, users.size(), succeeded);
+                }
+                engine.getMetrics().onBatchAddCompleted(System.nanoTime() - startTime);
+                engine.onUsersAdded(fileContext, users.size());
+                for (UserRecord user : users) {
+                    assignRoles(user);
+                    recordFingerprint(user);
+                }
+                return;
+            } catch (BulkUserProvisionServerException e) {
+                // Retry one by one to find out which of the users failed.
+                log.warn(String.format("%s Error occurred while adding a batch of %s users from file: %s. " +
+                                "Retrying the users one by one.", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                        users.size(), fileContext.getFileName()), e);
+            }
+        }
+        // The users of a failed batch are already charged to the rate limit.
+        boolean retry = engine.getConfigs().isBatchInsertEnabled();
+        for (UserRecord user : users) {
+            if (engine.getConfigs().isPreHashedPasswordsEnabled()) {
+                addPreHashedUser(user, retry);
+            } else {
+                addUser(user, retry);
+            }
+        }
+    }
+
+    private boolean isUpsertEnabled() {
+
+        return Constants.EXISTING_USER_ACTION_UPSERT.equals(engine.getConfigs().getExistingUserAction()) &&
+                engine.getExistingUserFilter() != null;
+    }
+
+    /**
+     * Update the claims of the users which might exist in a single batch. The filter of the existing users is not
+     * verified against the user store for each user, as the batch finds out which of the users don't exist.
+     *
+     * @param users Users read from the chunk.
+     * @return Users which don't exist in the user store.
+     */
+    private List<UserRecord> upsertExistingUsers(List<UserRecord> users) {
+
+        List<UserRecord> newUsers = new ArrayList<>(users.size());
+        List<UserRecord> existingUsers = new ArrayList<>();
+        for (UserRecord user : users) {
+            if (user.isChanged() || engine.getExistingUserFilter().mightBeExistingUser(user.getUsername())) {
+                existingUsers.add(user);
+            } else {
+                newUsers.add(user);
+            }
+        }
+        if (existingUsers.isEmpty()) {
+            return newUsers;
+        }
+
+        List<UserRecord> notFoundUsers;
+        try {
+            acquireWrite(existingUsers.size());
+            long startTime = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                notFoundUsers = engine.getBulkUserStoreDAO().updateUserClaims(existingUsers);
+                succeeded = true;
+            } finally {
+                releaseWrite(System.nanoTime() - startTime, existingUsers.size(), succeeded);
+            }
+        } catch (BulkUserProvisionServerException e) {
+            // Retry one by one to find out which of the users failed.
+            log.warn(String.format("%s Error occurred while updating a batch of %s users from file: %s. " +
+                            "Retrying the users one by one.", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                    existingUsers.size(), fileContext.getFileName()), e);
+            newUsers.addAll(filterExistingUsers(existingUsers, engine.getConfigs(), true));
+            return newUsers;
+        }
+        // The users which are not found are returned in the order of the batch.
+        int notFoundIndex = 0;
+        for (UserRecord user : existingUsers) {
+            if (notFoundIndex < notFoundUsers.size() && notFoundUsers.get(notFoundIndex) == user) {
+                notFoundIndex++;
+                newUsers.add(user);
+            } else {
+                try {
+                    addMissingRoles(user);
+                } catch (UserStoreException e) {
+                    reject(user, Constants.ErrorMessage.SERVER_USER_UPDATE_ERROR, e);
+                    continue;
+                }
+                engine.onUserUpdated(fileContext);
+                recordFingerprint(user);
+            }
+        }
+        return newUsers;
+    }
+
+    /**
+     * Update the claims of the users whose rows changed since the last job. They are expected to exist, so they are
+     * only checked against the user store if the update fails, and the ones deleted since the last job are added as
+     * new users.
+     *
+     * @param users Users read from the chunk.
+     * @return Users which were not provisioned by the last job, or were deleted since.
+     */
+    private List<UserRecord> updateChangedUsers(List<UserRecord> users) {
+
+        List<UserRecord> newUsers = new ArrayList<>(users.size());
+        for (UserRecord user : users) {
+            if (!user.isChanged()) {
+                newUsers.add(user);
+                continue;
+            }
+            try {
+                updateUser(user, false);
+                engine.onUserUpdated(fileContext);
+                recordFingerprint(user);
+            } catch (UserStoreException e) {
+                if (isDeletedUser(user)) {
+                    newUsers.add(user);
+                } else {
+                    reject(user, Constants.ErrorMessage.SERVER_USER_UPDATE_ERROR, e);
+                }
+            }
+        }
+        return newUsers;
+    }
+
+    private boolean isDeletedUser(UserRecord user) {
+
+        try {
+            return !engine.getUserStoreManager().isExistingUser(user.getUsername());
+        } catch (UserStoreException e) {
+            log.error(String.format("%s Error occurred while checking whether the user: %s exists.",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, user.getUsername()), e);
+            return false;
+        }
+    }
+
+    /**
+     * Skip or update the users which already exist in the user store, instead of letting them fail while adding.
+     *
+     * @param users   Users read from the chunk.
+     * @param configs Configurations of the job.
+     * @param retry   Whether the users are retried after a failed batch, which already charged them to the rate
+     *                limit.
+     * @return Users which don't exist in the user store.
+     */
+    private List<UserRecord> filterExistingUsers(List<UserRecord> users, ConfigurationsDTO configs, boolean retry) {
+
+        List<UserRecord> newUsers = new ArrayList<>(users.size());
+        for (UserRecord user : users) {
+            try {
+                if (!engine.getExistingUserFilter().isExistingUser(user.getUsername())) {
+                    newUsers.add(user);
+                } else if (Constants.EXISTING_USER_ACTION_UPDATE.equals(configs.getExistingUserAction()) ||
+                        Constants.EXISTING_USER_ACTION_UPSERT.equals(configs.getExistingUserAction())) {
+                    updateUser(user, retry);
+                    engine.onUserUpdated(fileContext);
+                    recordFingerprint(user);
+                } else {
+                    engine.onUserSkipped(fileContext);
+                    recordFingerprint(user);
+                }
+            } catch (UserStoreException e) {
+                reject(user, Constants.ErrorMessage.SERVER_USER_UPDATE_ERROR, e);
+            }
+        }
+        return newUsers;
+    }
+
+    private void addUser(UserRecord user, boolean retry) {
+
+        try {
+            acquireWrite(retry ? 0 : 1);
+            long startTime = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                engine.getUserStoreManager().doAddUserWithID(user.getUsername(), user.getPassword(), null,
+                        user.getClaims(), null, false);
+                succeeded = true;
+            } finally {
+                releaseWrite(System.nanoTime() - startTime, 1, succeeded);
+            }
+            engine.getMetrics().onAddUserCompleted(System.nanoTime() - startTime);
+            engine.onUsersAdded(fileContext, 1);
+            assignRoles(user);
+            recordFingerprint(user);
+        } catch (UserStoreException e) {
+            reject(user, Constants.ErrorMessage.SERVER_USER_ADD_ERROR, e);
+        }
+    }
+
+    /**
+     * Add a user with a pre-hashed password on its own, as adding it through the user store manager would hash the
+     * hash again.
+     */
+    private void addPreHashedUser(UserRecord user, boolean retry) {
+
+        try {
+            acquireWrite(retry ? 0 : 1);
+            long startTime = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                engine.getBulkUserStoreDAO().addUsers(Collections.singletonList(user));
+                succeeded = true;
+            } finally {
+                releaseWrite(System.nanoTime() - startTime, 1, succeeded);
+            }
+            engine.getMetrics().onAddUserCompleted(System.nanoTime() - startTime);
+            engine.onUsersAdded(fileContext, 1);
+            assignRoles(user);
+            recordFingerprint(user);
+        } catch (BulkUserProvisionServerException e) {
+            engine.onRowRejected(fileContext, user.getRow(), Constants.ErrorMessage.SERVER_USER_ADD_ERROR,
+                    e.getMessage());
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("%s %s:%s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                        Constants.ErrorMessage.SERVER_USER_ADD_ERROR.getCode(), String.format(
+                                Constants.ErrorMessage.SERVER_USER_ADD_ERROR.getDescription(), user.getUsername())), e);
+            }
+        }
+    }
+
+    private void hashPasswords(List<UserRecord> users) {
+
+        if (engine.getPasswordHasher() == null) {
+            return;
+        }
+        for (UserRecord user : users) {
+            if (user.getPasswordHash() == null) {
+                engine.getPasswordHasher().hash(user);
+            }
+        }
+    }
+
+    private void reject(UserRecord user, Constants.ErrorMessage error, UserStoreException e) {
+
+        engine.onRowRejected(fileContext, user.getRow(), error, e.getMessage());
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("%s %s:%s", Constants.BULK_USER_PROVISION_LOG_PREFIX, error.getCode(),
+                    String.format(error.getDescription(), user.getUsername())), e);
+        }
+    }
+
+    private void updateUser(UserRecord user, boolean retry) throws UserStoreException {
+
+        acquireWrite(retry ? 0 : 1);
+        long startTime = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            engine.getUserStoreManager().setUserClaimValues(user.getUsername(), user.getClaims(), null);
+            succeeded = true;
+        } finally {
+            releaseWrite(System.nanoTime() - startTime, 1, succeeded);
+        }
+        addMissingRoles(user);
+    }
+
+    /**
+     * Assign the roles of the row of an updated user which the user doesn't have yet, along with the roles of the
+     * added users.
+     */
+    private void addMissingRoles(UserRecord user) throws UserStoreException {
+
+        if (user.getRoles() == null || user.getRoles().length == 0) {
+            return;
+        }
+        Set<String> roles = new HashSet<>(Arrays.asList(
+                engine.getUserStoreManager().getRoleListOfUser(user.getUsername())));
+        for (String role : user.getRoles()) {
+            if (!roles.contains(role)) {
+                usersOfRoles.computeIfAbsent(role, key -> new ArrayList<>()).add(user.getUsername());
+            }
+        }
+    }
+
+    /**
+     * Wait for the rate limit of the users before the concurrency limit, so that the waiting writes don't hold the
+     * user store writes of the other workers back. A failed batch releases its concurrency permit before its users
+     * are retried, and the retries take a permit each without charging the rate limit again.
+     *
+     * @param noOfUsers Number of users to charge to the rate limit.
+     */
+    private void acquireWrite(int noOfUsers) {
+
+        engine.getRateLimiter().acquire(noOfUsers);
+        if (engine.getConcurrencyLimiter() != null) {
+            engine.getConcurrencyLimiter().acquire();
+        }
+    }
+
+    private void releaseWrite(long latencyNanos, int noOfUsers, boolean succeeded) {
+
+        if (engine.getConcurrencyLimiter() != null) {
+            engine.getConcurrencyLimiter().release(latencyNanos, noOfUsers, succeeded);
+        }
+    }
+
+    /**
+     * Record the fingerprint of a user which is written to the user store, or left as it is as an existing user.
+     */
+    private void recordFingerprint(UserRecord user) {
+
+        if (engine.getRowFingerprintStore() != null) {
+            engine.getRowFingerprintStore().record(user.getUsername(), user.getFingerprint());
+        }
+    }
+
+    private void assignRoles(UserRecord user) {
+
+        if (user.getRoles() != null && user.getRoles().length > 0) {
+            for (String role : user.getRoles()) {
+                usersOfRoles.computeIfAbsent(role, key -> new ArrayList<>()).add(user.getUsername());
+            }
+        }
+    }
+}
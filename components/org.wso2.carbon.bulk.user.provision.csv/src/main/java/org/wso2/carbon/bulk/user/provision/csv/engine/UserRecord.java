@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import java.util.Map;
+
+/**
+ * A user read from a CSV row, ready to be written to the user store.
+ */
+public class UserRecord {
+
+    private final String[] row;
+    private final String username;
+    private final String password;
+    private final String[] roles;
+    private final Map<String, String> claims;
+    private String passwordHash;
+    private String saltValue;
+    private long fingerprint = RowFingerprintStore.NO_FINGERPRINT;
+    private boolean changed;
+
+    public UserRecord(String[] row, String username, String password, String[] roles, Map<String, String> claims) {
+
+        this.row = row;
+        this.username = username;
+        this.password = password;
+        this.roles = roles;
+        this.claims = claims;
+    }
+
+    /**
+     * @return CSV row the user is read from.
+     */
+    public String[] getRow() {
+
+        return row;
+    }
+
+    public String getUsername() {
+
+        return username;
+    }
+
+    public String getPassword() {
+
+        return password;
+    }
+
+    /**
+     * @return Roles of the user or null if the user doesn't have roles.
+     */
+    public String[] getRoles() {
+
+        return roles;
+    }
+
+    public Map<String, String> getClaims() {
+
+        return claims;
+    }
+
+    public String getPasswordHash() {
+
+        return passwordHash;
+    }
+
+    public void setPasswordHash(String passwordHash) {
+
+        this.passwordHash = passwordHash;
+    }
+
+    public String getSaltValue() {
+
+        return saltValue;
+    }
+
+    public void setSaltValue(String saltValue) {
+
+        this.saltValue = saltValue;
+    }
+
+    /**
+     * @return Fingerprint of the row, or NO_FINGERPRINT if delta sync is not enabled.
+     */
+    public long getFingerprint() {
+
+        return fingerprint;
+    }
+
+    public void setFingerprint(long fingerprint) {
+
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return True if the user was provisioned by an earlier job from a row with different claims.
+     */
+    public boolean isChanged() {
+
+        return changed;
+    }
+
+    public void setChanged(boolean changed) {
+
+        this.changed = changed;
+    }
+}
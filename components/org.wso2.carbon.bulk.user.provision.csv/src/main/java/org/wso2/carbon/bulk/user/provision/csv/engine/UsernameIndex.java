@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.wso2.carbon.bulk.user.provision.csv.util.HashUtils;
+
+/**
+ * Memory compact index of usernames, holding two primitive longs per username instead of the username itself.
+ * A username is keyed by a 64-bit hash of its normalized form, and verified by a 16-bit fingerprint taken from an
+ * independent hash, so two different usernames are only confused if both hashes collide. The index records where
+ * the winning row of each username is, as a file index and a row index.
+ */
+public class UsernameIndex {
+
+    private static final long EMPTY = 0L;
+    private static final int FILE_INDEX_BITS = 12;
+    private static final int ROW_INDEX_BITS = 36;
+    private static final int FINGERPRINT_BITS = 16;
+    private static final long ROW_INDEX_MASK = (1L << ROW_INDEX_BITS) - 1;
+    private static final long FINGERPRINT_MASK = (1L << FINGERPRINT_BITS) - 1;
+    private static final long LOCATION_MASK = ~FINGERPRINT_MASK;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    /**
+     * Maximum number of files which can be indexed.
+     */
+    public static final int MAX_FILES = 1 << FILE_INDEX_BITS;
+
+    private final boolean caseInsensitive;
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * @param initialCapacity Expected number of usernames.
+     * @param caseInsensitive Whether usernames differing only by case are the same username.
+     */
+    public UsernameIndex(int initialCapacity, boolean caseInsensitive) {
+
+        this.caseInsensitive = caseInsensitive;
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1)) << 1;
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Record a row of a username.
+     *
+     * @param username   Username of the row.
+     * @param fileIndex  Index of the file of the row.
+     * @param rowIndex   Index of the row in the file.
+     * @param keepLatest Whether a later row of an indexed username replaces the recorded row.
+     * @return True if the username was already indexed.
+     */
+    public boolean put(String username, int fileIndex, long rowIndex, boolean keepLatest) {
+
+        String normalizedUsername = HashUtils.normalize(username, caseInsensitive);
+        long key = getKey(normalizedUsername);
+        long fingerprint = getFingerprint(normalizedUsername);
+        int slot = findSlot(key, fingerprint);
+        if (keys[slot] != EMPTY) {
+            if (keepLatest) {
+                values[slot] = getLocation(fileIndex, rowIndex) | fingerprint;
+            }
+            return true;
+        }
+        keys[slot] = key;
+        values[slot] = getLocation(fileIndex, rowIndex) | fingerprint;
+        if (++size > keys.length * MAX_LOAD_FACTOR) {
+            resize();
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a row is the recorded row of its username.
+     *
+     * @param username  Username of the row.
+     * @param fileIndex Index of the file of the row.
+     * @param rowIndex  Index of the row in the file.
+     * @return True if the row is the recorded row, or the username is not indexed.
+     */
+    public boolean isRecordedRow(String username, int fileIndex, long rowIndex) {
+
+        String normalizedUsername = HashUtils.normalize(username, caseInsensitive);
+        long fingerprint = getFingerprint(normalizedUsername);
+        int slot = findSlot(getKey(normalizedUsername), fingerprint);
+        return keys[slot] == EMPTY || (values[slot] & LOCATION_MASK) == getLocation(fileIndex, rowIndex);
+    }
+
+    /**
+     * Merge the usernames of another index, built from rows which come after the rows of this index.
+     *
+     * @param other      Index to merge.
+     * @param keepLatest Whether the recorded row of the other index replaces the recorded row of this index.
+     * @return Number of usernames of the other index which were already indexed.
+     */
+    public long merge(UsernameIndex other, boolean keepLatest) {
+
+        long noOfDuplicates = 0;
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] == EMPTY) {
+                continue;
+            }
+            int slot = findSlot(other.keys[i], other.values[i] & FINGERPRINT_MASK);
+            if (keys[slot] != EMPTY) {
+                if (keepLatest) {
+                    values[slot] = other.values[i];
+                }
+                noOfDuplicates++;
+                continue;
+            }
+            keys[slot] = other.keys[i];
+            values[slot] = other.values[i];
+            if (++size > keys.length * MAX_LOAD_FACTOR) {
+                resize();
+            }
+        }
+        return noOfDuplicates;
+    }
+
+    public int size() {
+
+        return size;
+    }
+
+    /**
+     * @return Size of the index in bytes.
+     */
+    public long getSizeInBytes() {
+
+        return keys.length * 16L;
+    }
+
+    private int findSlot(long key, long fingerprint) {
+
+        int slot = (int) HashUtils.mix64(key) & mask;
+        while (keys[slot] != EMPTY && (keys[slot] != key || (values[slot] & FINGERPRINT_MASK) != fingerprint)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new long[oldValues.length << 1];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findSlot(oldKeys[i], oldValues[i] & FINGERPRINT_MASK);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static long getKey(String normalizedUsername) {
+
+        long key = HashUtils.hash64(normalizedUsername);
+        return key == EMPTY ? 1L : key;
+    }
+
+    private static long getFingerprint(String normalizedUsername) {
+
+        // String hash code is a polynomial hash, independent from the 64-bit hash of the key.
+        return normalizedUsername.hashCode() & FINGERPRINT_MASK;
+    }
+
+    private static long getLocation(int fileIndex, long rowIndex) {
+
+        return (((long) fileIndex << ROW_INDEX_BITS) | (rowIndex & ROW_INDEX_MASK)) << FINGERPRINT_BITS;
+    }
+}
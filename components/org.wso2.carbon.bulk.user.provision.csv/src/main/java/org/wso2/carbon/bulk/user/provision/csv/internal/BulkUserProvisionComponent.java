@@ -20,21 +20,27 @@ package org.wso2.carbon.bulk.user.provision.csv.internal;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
+import org.wso2.carbon.bulk.user.provision.csv.BulkUserProvisionService;
 import org.wso2.carbon.bulk.user.provision.csv.BulkUserProvisionServiceImpl;
 import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.job.CsvFolderWatcher;
 import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
 import org.wso2.carbon.user.core.service.RealmService;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * OSGi service component for BulkUserProvision.
@@ -47,26 +53,94 @@ public class BulkUserProvisionComponent {
 
     private static Log log = LogFactory.getLog(BulkUserProvisionComponent.class);
 
+    private BulkUserProvisionServiceImpl bulkUserProvisionService;
+    private ServiceRegistration<?> serviceRegistration;
+    private CsvFolderWatcher csvFolderWatcher;
+
     @Activate
     protected void activate(ComponentContext componentContext) {
 
         log.debug("Activating BulkUserProvisionComponent");
         try {
+            // The service falls back to the global configurations, so it is only registered once they are valid.
             Utils.readConfigurations();
-            if (BulkUserProvisionDataHolder.getInstance().getConfigs().isEnabled()) {
+            bulkUserProvisionService = new BulkUserProvisionServiceImpl();
+            serviceRegistration = componentContext.getBundleContext().registerService(
+                    BulkUserProvisionService.class.getName(), bulkUserProvisionService, null);
+            registerMetricsMBean();
+            ConfigurationsDTO configs = BulkUserProvisionDataHolder.getInstance().getConfigs();
+            if (configs.isEnabled() && configs.isWatchEnabled()) {
+                log.info(Constants.BULK_USER_PROVISION_LOG_PREFIX);
+                // Each CSV file of the folder, including the ones already there, is provisioned by its own job.
+                csvFolderWatcher = new CsvFolderWatcher(bulkUserProvisionService,
+                        Constants.BULK_USER_PROVISION_CSV_DIR_PATH, Constants.BULK_USER_PROVISION_PROCESSED_DIR_PATH,
+                        Constants.BULK_USER_PROVISION_FAILED_DIR_PATH, configs.getWatchFileStableTime(),
+                        configs.getWatchMarkerFileSuffix());
+                csvFolderWatcher.start();
+            } else if (configs.isEnabled()) {
                 log.info(Constants.BULK_USER_PROVISION_LOG_PREFIX);
-                Callable<Boolean> bulkUserProvisionService = new BulkUserProvisionServiceImpl();
-                ExecutorService executorService =
-                        Executors.newFixedThreadPool(BulkUserProvisionDataHolder.getConfigs().getThreadPoolSize());
-                Future<Boolean> executorServiceRes = executorService.submit(bulkUserProvisionService);
-                log.info(String.format("%s User Bulk Migration is started.", Constants.BULK_USER_PROVISION_LOG_PREFIX));
-                log.info(String.format("%s", executorServiceRes.get()));
+                // Activation doesn't wait for the job, so that the server starts while the users are provisioned in
+                // the background.
+                String jobId = bulkUserProvisionService.submitJob(Constants.BULK_USER_PROVISION_CSV_DIR_PATH, null);
+                log.info(String.format("%s User Bulk Migration is started. Job: %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, jobId));
             }
         } catch (Throwable e) {
             log.error("Error while activating BulkUserProvision bundle ", e);
         }
     }
 
+    /**
+     * Stop watching the folder, then cancel the running jobs and wait for them to stop. Rows committed before the
+     * cancellation are kept in the progress journal, so the next activation resumes from them.
+     */
+    @Deactivate
+    protected void deactivate(ComponentContext componentContext) {
+
+        log.debug("Deactivating BulkUserProvisionComponent");
+        if (serviceRegistration != null) {
+            serviceRegistration.unregister();
+            serviceRegistration = null;
+        }
+        if (csvFolderWatcher != null) {
+            csvFolderWatcher.stop(Constants.BULK_USER_PROVISION_SHUTDOWN_TIMEOUT);
+            csvFolderWatcher = null;
+        }
+        if (bulkUserProvisionService != null) {
+            bulkUserProvisionService.shutdown(Constants.BULK_USER_PROVISION_SHUTDOWN_TIMEOUT);
+            bulkUserProvisionService = null;
+        }
+        unregisterMetricsMBean();
+    }
+
+    private void registerMetricsMBean() {
+
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(Constants.BULK_USER_PROVISION_MBEAN_NAME);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(BulkUserProvisionDataHolder.getInstance().getMetrics(), objectName);
+            }
+        } catch (JMException e) {
+            log.error(String.format("%s Error while registering the metrics MBean: %s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, Constants.BULK_USER_PROVISION_MBEAN_NAME), e);
+        }
+    }
+
+    private void unregisterMetricsMBean() {
+
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(Constants.BULK_USER_PROVISION_MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            log.error(String.format("%s Error while unregistering the metrics MBean: %s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, Constants.BULK_USER_PROVISION_MBEAN_NAME), e);
+        }
+    }
+
     @Reference(name = "realm.service",
             service = RealmService.class,
             cardinality = ReferenceCardinality.MANDATORY,
@@ -19,6 +19,7 @@
 package org.wso2.carbon.bulk.user.provision.csv.internal;
 
 import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.metrics.BulkUserProvisionMetrics;
 import org.wso2.carbon.user.core.service.RealmService;
 
 /**
@@ -29,6 +30,7 @@ public class BulkUserProvisionDataHolder {
     private static final BulkUserProvisionDataHolder dataHolder = new BulkUserProvisionDataHolder();
     private RealmService realmService;
     private static final ConfigurationsDTO configs = new ConfigurationsDTO();
+    private final BulkUserProvisionMetrics metrics = new BulkUserProvisionMetrics();
 
     public static BulkUserProvisionDataHolder getInstance() {
 
@@ -49,4 +51,9 @@ public class BulkUserProvisionDataHolder {
 
         return configs;
     }
+
+    public BulkUserProvisionMetrics getMetrics() {
+
+        return metrics;
+    }
 }
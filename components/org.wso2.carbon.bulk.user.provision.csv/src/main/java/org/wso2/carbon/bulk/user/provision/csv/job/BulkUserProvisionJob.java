@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.job;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.dto.ConfigurationsDTO;
+import org.wso2.carbon.bulk.user.provision.csv.dto.JobStatusDTO;
+import org.wso2.carbon.bulk.user.provision.csv.engine.CsvFileProvisionTask;
+import org.wso2.carbon.bulk.user.provision.csv.engine.ProvisioningEngine;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionException;
+import org.wso2.carbon.bulk.user.provision.csv.metrics.BulkUserProvisionMetrics;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+import org.wso2.carbon.user.core.jdbc.UniqueIDJDBCUserStoreManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bulk user provision job, provisioning a set of CSV files with its own configurations. The job can be paused,
+ * which stops the files from being read further while the rows already read are provisioned, and cancelled, which
+ * interrupts the readers and the workers.
+ */
+public class BulkUserProvisionJob implements Callable<Boolean> {
+
+    private static final Log log = LogFactory.getLog(BulkUserProvisionJob.class);
+
+    private final String jobId;
+    private final File[] files;
+    private final ConfigurationsDTO configs;
+    private final BulkUserProvisionMetrics metrics;
+    // Folder holding copies of the files which are deleted once the job is finished, or null.
+    private final Path tempDir;
+    private final long submittedTime = System.currentTimeMillis();
+
+    // Guarded by this.
+    private JobState state = JobState.QUEUED;
+    private boolean paused;
+    private boolean cancelled;
+    private ProvisioningEngine engine;
+    private long startTime;
+    private long endTime;
+    private double maxUsersPerSecond;
+    private int maxUsersPerSecondBurst;
+
+    public BulkUserProvisionJob(String jobId, File[] files, ConfigurationsDTO configs,
+                                BulkUserProvisionMetrics metrics, Path tempDir) {
+
+        this.jobId = jobId;
+        this.files = files;
+        this.configs = configs;
+        this.metrics = metrics;
+        this.tempDir = tempDir;
+        this.maxUsersPerSecond = configs.getMaxUsersPerSecond();
+        this.maxUsersPerSecondBurst = configs.getMaxUsersPerSecondBurst();
+    }
+
+    /**
+     * @return True if all the files were read and provisioned.
+     */
+    @Override
+    public Boolean call() {
+
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            state = paused ? JobState.PAUSED : JobState.RUNNING;
+            startTime = System.currentTimeMillis();
+        }
+        boolean completed = false;
+        try {
+            completed = provision();
+            return completed;
+        } catch (BulkUserProvisionException | RuntimeException e) {
+            log.error(String.format("%s Error occurred while running the bulk user provision job: %s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, jobId), e);
+            return false;
+        } finally {
+            synchronized (this) {
+                endTime = System.currentTimeMillis();
+                state = cancelled ? JobState.CANCELLED : completed ? JobState.COMPLETED : JobState.FAILED;
+            }
+            deleteTempDir();
+            log.info(String.format("%s Bulk user provision job: %s finished with state: %s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, jobId, getState()));
+        }
+    }
+
+    private boolean provision() throws BulkUserProvisionException {
+
+        UniqueIDJDBCUserStoreManager uniqueIDJDBCUserStoreManager =
+                (UniqueIDJDBCUserStoreManager) Utils.getUserStoreManager(configs);
+        if (uniqueIDJDBCUserStoreManager == null) {
+            return false;
+        }
+        // Start time to provision bulk users.
+        long startingTimeProvisioningBulkUsers = System.currentTimeMillis();
+        int noOfRowsFetch = configs.getNoOfRowsFetch();
+        if (noOfRowsFetch <= 0) {
+            noOfRowsFetch = Constants.DEFAULT_NO_OF_ROWS_FETCH;
+        }
+        log.info(String.format("%s Starting user provisioning job: %s to the given user store. Files: %s, rows " +
+                        "per chunk: %s, workers: %s, batch insert: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                jobId, files.length, noOfRowsFetch, configs.getThreadPoolSize(), configs.isBatchInsertEnabled()));
+
+        metrics.onJobStarted();
+        ProvisioningEngine provisioningEngine = new ProvisioningEngine(configs, uniqueIDJDBCUserStoreManager,
+                Utils.getTenantIdFromDomain(configs.getTenantDomain()), metrics);
+        synchronized (this) {
+            engine = provisioningEngine;
+            engine.getRateLimiter().setRate(maxUsersPerSecond, maxUsersPerSecondBurst);
+            if (paused) {
+                engine.pause();
+            }
+        }
+        // The engine owns the worker threads, the rejected rows writer and the progress journal, so it is shut down
+        // on every path which doesn't wait for it to complete.
+        boolean engineCompleted = false;
+        ExecutorService readers = null;
+        try {
+            provisioningEngine.loadExistingUsers();
+            provisioningEngine.scanDuplicateUsernames(files);
+            if (Thread.currentThread().isInterrupted()) {
+                log.info(String.format("%s Bulk user provisioning was stopped before reading the CSV files.",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX));
+                return false;
+            }
+            // Files are parsed concurrently and their chunks are shared by the engine workers.
+            int noOfReaders = Math.max(1, Math.min(files.length, configs.getThreadPoolSize()));
+            AtomicInteger readerCount = new AtomicInteger();
+            readers = Executors.newFixedThreadPool(noOfReaders, runnable -> {
+                Thread thread = new Thread(runnable, "BulkUserProvisionReader-" + readerCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            boolean completed = true;
+            try {
+                // Start with the largest files, so that they don't end up being read alone at the end of the run.
+                Integer[] fileOrder = new Integer[files.length];
+                for (int file = 0; file < files.length; file++) {
+                    fileOrder[file] = file;
+                }
+                Arrays.sort(fileOrder, Comparator.comparingLong((Integer file) -> files[file].length()).reversed());
+
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int file : fileOrder) {
+                    results.add(readers.submit(new CsvFileProvisionTask(provisioningEngine, files[file], file,
+                            noOfRowsFetch)));
+                }
+                for (Future<Boolean> result : results) {
+                    try {
+                        completed &= result.get();
+                    } catch (ExecutionException e) {
+                        completed = false;
+                        log.error(String.format("%s Error occurred while reading from CSV files.",
+                                Constants.BULK_USER_PROVISION_LOG_PREFIX), e.getCause());
+                    }
+                }
+                provisioningEngine.awaitCompletion();
+                engineCompleted = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error(String.format("%s Bulk user provisioning job: %s was interrupted.",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, jobId), e);
+                return false;
+            }
+            long bulkUserProvisionEnd = System.currentTimeMillis();
+            long timeTaken = Math.max(1, bulkUserProvisionEnd - startingTimeProvisioningBulkUsers);
+            log.info(String.format("%s [TIME INDICATOR] Total time taken to read from CSV files and add users to " +
+                            "the user store (in milliseconds) : %s, users added: %s, users updated: %s, users " +
+                            "skipped: %s, users failed: %s, throughput: %.2f users/sec",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, timeTaken, provisioningEngine.getUsersAdded(),
+                    provisioningEngine.getUsersUpdated(), provisioningEngine.getUsersSkipped(),
+                    provisioningEngine.getUsersFailed(),
+                    (provisioningEngine.getUsersAdded() + provisioningEngine.getUsersUpdated() +
+                            provisioningEngine.getUsersSkipped() + provisioningEngine.getUsersFailed()) * 1000.0 /
+                            timeTaken));
+            return completed;
+        } finally {
+            if (!engineCompleted) {
+                // Interrupt the readers which are blocked on the engine before stopping its workers.
+                if (readers != null) {
+                    readers.shutdownNow();
+                }
+                provisioningEngine.shutdownNow();
+            } else {
+                readers.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Pause the job. A queued job starts paused.
+     */
+    public synchronized void pause() {
+
+        if (state.isFinished()) {
+            return;
+        }
+        paused = true;
+        if (engine != null) {
+            engine.pause();
+        }
+        if (state == JobState.RUNNING) {
+            state = JobState.PAUSED;
+        }
+    }
+
+    /**
+     * Resume a paused job.
+     */
+    public synchronized void resume() {
+
+        if (state.isFinished()) {
+            return;
+        }
+        paused = false;
+        if (engine != null) {
+            engine.resume();
+        }
+        if (state == JobState.PAUSED) {
+            state = JobState.RUNNING;
+        }
+    }
+
+    /**
+     * Mark the job as cancelled. The caller interrupts the thread running the job, which interrupts the readers
+     * even while they are waiting on a paused engine.
+     */
+    public synchronized void cancel() {
+
+        if (state.isFinished()) {
+            return;
+        }
+        cancelled = true;
+        if (state == JobState.QUEUED) {
+            state = JobState.CANCELLED;
+            endTime = System.currentTimeMillis();
+            deleteTempDir();
+        }
+    }
+
+    /**
+     * Change the rate limit of the job. The workers pick the new rate up from their next write.
+     *
+     * @param usersPerSecond Maximum users provisioned per second, or zero for no limit.
+     * @param burst          Users provisioned without waiting after an idle period.
+     */
+    public synchronized void setRateLimit(double usersPerSecond, int burst) {
+
+        maxUsersPerSecond = usersPerSecond;
+        maxUsersPerSecondBurst = burst;
+        if (engine != null) {
+            engine.getRateLimiter().setRate(usersPerSecond, burst);
+        }
+    }
+
+    public String getJobId() {
+
+        return jobId;
+    }
+
+    public synchronized JobState getState() {
+
+        return state;
+    }
+
+    public synchronized JobStatusDTO getStatus() {
+
+        JobStatusDTO status = new JobStatusDTO();
+        status.setJobId(jobId);
+        status.setState(state);
+        status.setNoOfFiles(files.length);
+        status.setSubmittedTime(submittedTime);
+        status.setStartTime(startTime);
+        status.setEndTime(endTime);
+        status.setMaxUsersPerSecond(maxUsersPerSecond);
+        status.setMaxUsersPerSecondBurst(maxUsersPerSecondBurst);
+        if (engine != null) {
+            status.setRowsRead(engine.getRowsRead());
+            status.setUsersAdded(engine.getUsersAdded());
+            status.setUsersUpdated(engine.getUsersUpdated());
+            status.setUsersSkipped(engine.getUsersSkipped());
+            status.setUsersFailed(engine.getUsersFailed());
+        }
+        return status;
+    }
+
+    private void deleteTempDir() {
+
+        if (tempDir == null || !Files.exists(tempDir)) {
+            return;
+        }
+        try {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+            Files.deleteIfExists(tempDir);
+        } catch (IOException e) {
+            log.warn(String.format("%s Error occurred while deleting the files of job: %s at: %s",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX, jobId, tempDir), e);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.job;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.bulk.user.provision.csv.BulkUserProvisionServiceImpl;
+import org.wso2.carbon.bulk.user.provision.csv.constants.Constants;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionClientException;
+import org.wso2.carbon.bulk.user.provision.csv.exception.BulkUserProvisionException;
+import org.wso2.carbon.bulk.user.provision.csv.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the CSV folder and submits a job for each new CSV file once the file is fully written, which is when its
+ * marker file exists, or if no marker suffix is configured, when its size and modified time haven't changed for the
+ * stable time. Finished files are moved to the processed folder, or to the failed folder if their job didn't
+ * complete. Files which are already in the folder when the watcher starts are provisioned the same way. The jobs of
+ * the watcher are retained by the service until their files are moved, so that their state is still known however
+ * many other jobs finish first.
+ */
+public class CsvFolderWatcher implements Runnable {
+
+    private static final Log log = LogFactory.getLog(CsvFolderWatcher.class);
+
+    private final BulkUserProvisionServiceImpl bulkUserProvisionService;
+    private final Path csvDir;
+    private final Path processedDir;
+    private final Path failedDir;
+    private final long stableTime;
+    private final String markerFileSuffix;
+
+    // Only used by the watcher thread. Files waiting to be fully written, and files being provisioned by job ID.
+    private final Map<Path, FileState> pendingFiles = new LinkedHashMap<>();
+    private final Map<String, Path> submittedFiles = new LinkedHashMap<>();
+    private WatchService watchService;
+    private Thread watcherThread;
+    private volatile boolean running;
+
+    public CsvFolderWatcher(BulkUserProvisionServiceImpl bulkUserProvisionService, Path csvDir, Path processedDir,
+                            Path failedDir, long stableTime, String markerFileSuffix) {
+
+        this.bulkUserProvisionService = bulkUserProvisionService;
+        this.csvDir = csvDir;
+        this.processedDir = processedDir;
+        this.failedDir = failedDir;
+        this.stableTime = stableTime;
+        this.markerFileSuffix = StringUtils.isBlank(markerFileSuffix) ? null : markerFileSuffix;
+    }
+
+    /**
+     * Start watching the folder on a daemon thread.
+     *
+     * @throws IOException If the folder could not be watched.
+     */
+    public synchronized void start() throws IOException {
+
+        Files.createDirectories(processedDir);
+        Files.createDirectories(failedDir);
+        watchService = FileSystems.getDefault().newWatchService();
+        csvDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        running = true;
+        watcherThread = new Thread(this, "BulkUserProvisionFolderWatcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        log.info(String.format("%s Watching folder: %s for new CSV files. Ready when %s.",
+                Constants.BULK_USER_PROVISION_LOG_PREFIX, csvDir, markerFileSuffix != null ?
+                        "the marker file with suffix: " + markerFileSuffix + " exists" :
+                        "the size is stable for " + stableTime + " ms"));
+    }
+
+    /**
+     * Stop watching the folder. Files of the running jobs are left in the folder, and are provisioned again from
+     * their checkpoints by the next watcher.
+     *
+     * @param timeout Time to wait for the watcher thread to stop, in milliseconds.
+     */
+    public synchronized void stop(long timeout) {
+
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.error(String.format("%s Error occurred while closing the watch service of folder: %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, csvDir), e);
+            }
+        }
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+            try {
+                watcherThread.join(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+
+        scanFolder();
+        while (running) {
+            try {
+                WatchKey watchKey = watchService.poll(Constants.WATCH_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (watchKey != null) {
+                    onEvents(watchKey);
+                }
+                submitReadyFiles();
+                moveFinishedFiles();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            } catch (RuntimeException e) {
+                log.error(String.format("%s Unexpected error while watching folder: %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, csvDir), e);
+            }
+        }
+        log.info(String.format("%s Stopped watching folder: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX, csvDir));
+    }
+
+    private void onEvents(WatchKey watchKey) {
+
+        boolean overflowed = false;
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflowed = true;
+            } else {
+                onFile(csvDir.resolve((Path) event.context()));
+            }
+        }
+        watchKey.reset();
+        if (overflowed) {
+            scanFolder();
+        }
+    }
+
+    /**
+     * Pick up the CSV files of the folder, for the files which land before the watcher starts or while events are
+     * lost.
+     */
+    private void scanFolder() {
+
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(csvDir)) {
+            for (Path file : directoryStream) {
+                onFile(file);
+            }
+        } catch (IOException e) {
+            log.error(String.format("%s %s:%s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                    Constants.ErrorMessage.SERVER_FOLDER_WATCH_ERROR.getCode(),
+                    String.format(Constants.ErrorMessage.SERVER_FOLDER_WATCH_ERROR.getDescription(), csvDir)), e);
+        }
+    }
+
+    private void onFile(Path file) {
+
+        String fileName = file.getFileName().toString();
+        if (markerFileSuffix != null && fileName.endsWith(markerFileSuffix)) {
+            file = file.resolveSibling(fileName.substring(0, fileName.length() - markerFileSuffix.length()));
+            fileName = file.getFileName().toString();
+        }
+        if (Utils.isCsvFile(fileName) && Files.isRegularFile(file) && !pendingFiles.containsKey(file) &&
+                !submittedFiles.containsValue(file)) {
+            pendingFiles.put(file, new FileState());
+        }
+    }
+
+    private void submitReadyFiles() {
+
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, FileState>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, FileState> pendingFile = iterator.next();
+            Path file = pendingFile.getKey();
+            File csvFile = file.toFile();
+            if (!csvFile.isFile()) {
+                iterator.remove();
+                continue;
+            }
+            boolean ready;
+            if (markerFileSuffix != null) {
+                ready = Files.exists(getMarkerFile(file));
+            } else {
+                ready = pendingFile.getValue().isStable(csvFile.length(), csvFile.lastModified(), now);
+            }
+            if (!ready) {
+                continue;
+            }
+            iterator.remove();
+            try {
+                String jobId = bulkUserProvisionService.submitRetainedJob(file, null);
+                submittedFiles.put(jobId, file);
+                log.info(String.format("%s Submitted job: %s for new file: %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, jobId, file));
+            } catch (BulkUserProvisionException e) {
+                log.error(String.format("%s Error occurred while submitting a job for file: %s",
+                        Constants.BULK_USER_PROVISION_LOG_PREFIX, file), e);
+                moveFile(file, failedDir);
+            }
+        }
+    }
+
+    private void moveFinishedFiles() {
+
+        Iterator<Map.Entry<String, Path>> iterator = submittedFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Path> submittedFile = iterator.next();
+            JobState state;
+            try {
+                state = bulkUserProvisionService.getJobStatus(submittedFile.getKey()).getState();
+            } catch (BulkUserProvisionClientException e) {
+                // Not expected, as the job is retained until it is released below, so its result is unknown.
+                state = JobState.FAILED;
+            }
+            if (!state.isFinished()) {
+                continue;
+            }
+            iterator.remove();
+            bulkUserProvisionService.releaseJob(submittedFile.getKey());
+            if (state == JobState.CANCELLED && !running) {
+                // Cancelled by the shutdown, so the file is provisioned again from its checkpoint.
+                continue;
+            }
+            moveFile(submittedFile.getValue(), state == JobState.COMPLETED ? processedDir : failedDir);
+        }
+    }
+
+    private void moveFile(Path file, Path targetDir) {
+
+        try {
+            Files.move(file, targetDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            if (markerFileSuffix != null) {
+                Files.deleteIfExists(getMarkerFile(file));
+            }
+            log.info(String.format("%s Moved file: %s to: %s", Constants.BULK_USER_PROVISION_LOG_PREFIX, file,
+                    targetDir));
+        } catch (IOException e) {
+            log.error(String.format("%s %s:%s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
+                    Constants.ErrorMessage.SERVER_FILE_MOVE_ERROR.getCode(),
+                    String.format(Constants.ErrorMessage.SERVER_FILE_MOVE_ERROR.getDescription(), file)), e);
+        }
+    }
+
+    private Path getMarkerFile(Path file) {
+
+        return file.resolveSibling(file.getFileName().toString() + markerFileSuffix);
+    }
+
+    /**
+     * Size and modified time of a file waiting to be fully written.
+     */
+    private class FileState {
+
+        private long size = -1;
+        private long lastModified = -1;
+        private long stableSince;
+
+        private boolean isStable(long size, long lastModified, long now) {
+
+            if (size != this.size || lastModified != this.lastModified) {
+                this.size = size;
+                this.lastModified = lastModified;
+                this.stableSince = now;
+                return false;
+            }
+            return now - stableSince >= stableTime;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of the bulk user provisioning, exposed as an MBean. The workers only touch LongAdders, so
+ * recording a user costs no contention between the workers, and all aggregation happens when the MBean is read.
+ */
+public class BulkUserProvisionMetrics implements BulkUserProvisionMetricsMBean {
+
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder usersAdded = new LongAdder();
+    private final LongAdder usersUpdated = new LongAdder();
+    private final LongAdder usersSkipped = new LongAdder();
+    private final LongAdder usersFailed = new LongAdder();
+    private final LatencyHistogram addUserLatency = new LatencyHistogram();
+    private final LatencyHistogram batchAddLatency = new LatencyHistogram();
+    private volatile long startTime;
+    // Stages of the pipeline of the latest job which used the pipeline, or null.
+    private volatile PipelineStageStats[] pipelineStages;
+
+    // Guarded by this. Only used when the MBean is read.
+    private long lastSampleTime;
+    private long lastSampleUsers;
+    private double currentUsersPerSecond;
+
+    /**
+     * Mark the start of a job. Only the first job sets the start time of the average rate.
+     */
+    public void onJobStarted() {
+
+        if (startTime == 0) {
+            synchronized (this) {
+                if (startTime == 0) {
+                    startTime = System.currentTimeMillis();
+                    lastSampleTime = startTime;
+                }
+            }
+        }
+    }
+
+    /**
+     * Expose the stages of the pipeline of a job, replacing the stages of the previous job.
+     */
+    public void onPipelineStarted(PipelineStageStats mapStage, PipelineStageStats hashStage,
+                                  PipelineStageStats writeStage) {
+
+        pipelineStages = new PipelineStageStats[]{mapStage, hashStage, writeStage};
+    }
+
+    public void onRowsParsed(int noOfRows) {
+
+        rowsParsed.add(noOfRows);
+    }
+
+    public void onUsersAdded(int noOfUsers) {
+
+        usersAdded.add(noOfUsers);
+    }
+
+    public void onUserUpdated() {
+
+        usersUpdated.increment();
+    }
+
+    public void onUserSkipped() {
+
+        usersSkipped.increment();
+    }
+
+    public void onUserFailed() {
+
+        usersFailed.increment();
+    }
+
+    /**
+     * @param nanos Time taken by a single add user call.
+     */
+    public void onAddUserCompleted(long nanos) {
+
+        addUserLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos Time taken to write a batch of users.
+     */
+    public void onBatchAddCompleted(long nanos) {
+
+        batchAddLatency.record(nanos);
+    }
+
+    @Override
+    public long getRowsParsed() {
+
+        return rowsParsed.sum();
+    }
+
+    @Override
+    public long getUsersAdded() {
+
+        return usersAdded.sum();
+    }
+
+    @Override
+    public long getUsersUpdated() {
+
+        return usersUpdated.sum();
+    }
+
+    @Override
+    public long getUsersSkipped() {
+
+        return usersSkipped.sum();
+    }
+
+    @Override
+    public long getUsersFailed() {
+
+        return usersFailed.sum();
+    }
+
+    @Override
+    public synchronized double getCurrentUsersPerSecond() {
+
+        if (startTime == 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSampleTime >= 1000) {
+            long users = getUsersProcessed();
+            currentUsersPerSecond = (users - lastSampleUsers) * 1000.0 / (now - lastSampleTime);
+            lastSampleTime = now;
+            lastSampleUsers = users;
+        }
+        return currentUsersPerSecond;
+    }
+
+    @Override
+    public double getAverageUsersPerSecond() {
+
+        long start = startTime;
+        if (start == 0) {
+            return 0;
+        }
+        return getUsersProcessed() * 1000.0 / Math.max(1, System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public long getAddUserCount() {
+
+        return addUserLatency.getCount();
+    }
+
+    @Override
+    public double getAddUserLatencyMean() {
+
+        return addUserLatency.getMean();
+    }
+
+    @Override
+    public double getAddUserLatency50thPercentile() {
+
+        return addUserLatency.getPercentile(50);
+    }
+
+    @Override
+    public double getAddUserLatency95thPercentile() {
+
+        return addUserLatency.getPercentile(95);
+    }
+
+    @Override
+    public double getAddUserLatency99thPercentile() {
+
+        return addUserLatency.getPercentile(99);
+    }
+
+    @Override
+    public double getAddUserLatencyMax() {
+
+        return addUserLatency.getMax();
+    }
+
+    @Override
+    public long getBatchAddCount() {
+
+        return batchAddLatency.getCount();
+    }
+
+    @Override
+    public double getBatchAddLatency50thPercentile() {
+
+        return batchAddLatency.getPercentile(50);
+    }
+
+    @Override
+    public double getBatchAddLatency99thPercentile() {
+
+        return batchAddLatency.getPercentile(99);
+    }
+
+    @Override
+    public int getMapStageQueueDepth() {
+
+        return getPipelineStage(0) == null ? 0 : getPipelineStage(0).getQueueDepth();
+    }
+
+    @Override
+    public double getMapStageUtilization() {
+
+        return getPipelineStage(0) == null ? 0 : getPipelineStage(0).getUtilization();
+    }
+
+    @Override
+    public int getHashStageQueueDepth() {
+
+        return getPipelineStage(1) == null ? 0 : getPipelineStage(1).getQueueDepth();
+    }
+
+    @Override
+    public double getHashStageUtilization() {
+
+        return getPipelineStage(1) == null ? 0 : getPipelineStage(1).getUtilization();
+    }
+
+    @Override
+    public int getWriteStageQueueDepth() {
+
+        return getPipelineStage(2) == null ? 0 : getPipelineStage(2).getQueueDepth();
+    }
+
+    @Override
+    public double getWriteStageUtilization() {
+
+        return getPipelineStage(2) == null ? 0 : getPipelineStage(2).getUtilization();
+    }
+
+    @Override
+    public void resetLatencies() {
+
+        addUserLatency.reset();
+        batchAddLatency.reset();
+    }
+
+    private PipelineStageStats getPipelineStage(int index) {
+
+        PipelineStageStats[] stages = pipelineStages;
+        return stages == null ? null : stages[index];
+    }
+
+    private long getUsersProcessed() {
+
+        return usersAdded.sum() + usersUpdated.sum() + usersSkipped.sum() + usersFailed.sum();
+    }
+}
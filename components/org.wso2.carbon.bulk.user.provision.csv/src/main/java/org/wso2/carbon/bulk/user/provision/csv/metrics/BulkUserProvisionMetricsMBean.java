@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.metrics;
+
+/**
+ * JMX view of the progress of the bulk user provisioning. Counters are cumulative from the activation of the
+ * component, and latencies are in milliseconds.
+ */
+public interface BulkUserProvisionMetricsMBean {
+
+    long getRowsParsed();
+
+    long getUsersAdded();
+
+    long getUsersUpdated();
+
+    long getUsersSkipped();
+
+    long getUsersFailed();
+
+    /**
+     * @return Rows provisioned per second since the previous read of this attribute, sampled at most once a second.
+     */
+    double getCurrentUsersPerSecond();
+
+    /**
+     * @return Rows provisioned per second since the start of the first job.
+     */
+    double getAverageUsersPerSecond();
+
+    long getAddUserCount();
+
+    double getAddUserLatencyMean();
+
+    double getAddUserLatency50thPercentile();
+
+    double getAddUserLatency95thPercentile();
+
+    double getAddUserLatency99thPercentile();
+
+    double getAddUserLatencyMax();
+
+    long getBatchAddCount();
+
+    double getBatchAddLatency50thPercentile();
+
+    double getBatchAddLatency99thPercentile();
+
+    /**
+     * @return Chunks waiting for the map stage of the pipeline, or zero if the pipeline is not used.
+     */
+    int getMapStageQueueDepth();
+
+    /**
+     * @return Share of the time the threads of the map stage were busy, from 0 to 1.
+     */
+    double getMapStageUtilization();
+
+    int getHashStageQueueDepth();
+
+    double getHashStageUtilization();
+
+    int getWriteStageQueueDepth();
+
+    double getWriteStageUtilization();
+
+    /**
+     * Reset the latency histograms, to look at the latencies of the current phase of a long run.
+     */
+    void resetLatencies();
+}
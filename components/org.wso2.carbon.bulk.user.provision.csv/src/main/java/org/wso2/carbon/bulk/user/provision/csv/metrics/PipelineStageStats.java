@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.metrics;
+
+/**
+ * Load of a stage of the provisioning pipeline.
+ */
+public interface PipelineStageStats {
+
+    /**
+     * @return Chunks waiting for a thread of the stage.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return Share of the time the threads of the stage were busy since the stage started, from 0 to 1.
+     */
+    double getUtilization();
+
+    /**
+     * @return Chunks completed by the stage.
+     */
+    long getChunksCompleted();
+}
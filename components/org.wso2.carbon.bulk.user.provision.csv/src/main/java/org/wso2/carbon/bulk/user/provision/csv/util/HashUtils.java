@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.util;
+
+import java.util.Locale;
+
+/**
+ * Hash functions used to build compact in-memory indexes of usernames.
+ */
+public class HashUtils {
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long MULTIPLIER = 0xC6A4A7935BD1E995L;
+
+    private HashUtils() {
+
+    }
+
+    /**
+     * Normalize a username. Usernames differing only by case are treated as the same username only if the user store
+     * ignores the case of the usernames.
+     *
+     * @param username        Username.
+     * @param caseInsensitive Whether the user store is configured with CaseInsensitiveUsername.
+     * @return Normalized username.
+     */
+    public static String normalize(String username, boolean caseInsensitive) {
+
+        String normalizedUsername = username.trim();
+        return caseInsensitive ? normalizedUsername.toLowerCase(Locale.ENGLISH) : normalizedUsername;
+    }
+
+    /**
+     * 64-bit hash of a string, based on the MurmurHash64A mixing steps applied to each character.
+     *
+     * @param value Value to hash.
+     * @return 64-bit hash.
+     */
+    public static long hash64(CharSequence value) {
+
+        long hash = SEED ^ (value.length() * MULTIPLIER);
+        for (int i = 0; i < value.length(); i++) {
+            long k = value.charAt(i) * MULTIPLIER;
+            k ^= k >>> 47;
+            k *= MULTIPLIER;
+            hash ^= k;
+            hash *= MULTIPLIER;
+        }
+        return mix64(hash);
+    }
+
+    /**
+     * Finalization mix of MurmurHash3, used to derive independent hashes from a 64-bit hash.
+     *
+     * @param value Value to mix.
+     * @return Mixed value.
+     */
+    public static long mix64(long value) {
+
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
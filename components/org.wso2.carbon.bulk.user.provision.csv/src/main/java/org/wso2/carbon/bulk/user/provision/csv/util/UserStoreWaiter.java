@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.util;
+
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.UserStoreManager;
+import org.wso2.carbon.user.core.service.RealmService;
+
+/**
+ * Waits for a secondary user store to be registered to the bootstrap realm. The realm is polled with an exponential
+ * backoff, so a user store which is added quickly is found within milliseconds, while a slow one costs only a few
+ * polls a second instead of a busy core.
+ */
+public class UserStoreWaiter {
+
+    private final RealmService realmService;
+    private final long initialInterval;
+    private final long maxInterval;
+
+    public UserStoreWaiter(RealmService realmService, long initialInterval, long maxInterval) {
+
+        this.realmService = realmService;
+        this.initialInterval = Math.max(1, initialInterval);
+        this.maxInterval = Math.max(this.initialInterval, maxInterval);
+    }
+
+    /**
+     * Wait until the secondary user store of the given domain is registered.
+     *
+     * @param domain  Domain of the secondary user store.
+     * @param timeout Maximum time to wait, in milliseconds.
+     * @return User store manager of the domain, or null if it is not registered within the timeout.
+     * @throws UserStoreException   If the bootstrap realm could not be read.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public UserStoreManager waitForSecondaryUserStore(String domain, long timeout)
+            throws UserStoreException, InterruptedException {
+
+        long deadline = System.currentTimeMillis() + timeout;
+        long interval = initialInterval;
+        while (true) {
+            UserStoreManager userStoreManager = realmService.getBootstrapRealm().getUserStoreManager()
+                    .getSecondaryUserStoreManager(domain);
+            if (userStoreManager != null) {
+                return userStoreManager;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            Thread.sleep(Math.min(interval, remaining));
+            interval = Math.min(interval * 2, maxInterval);
+        }
+    }
+}
@@ -39,6 +39,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 
@@ -51,40 +52,40 @@ public class Utils {
 
     public static void readConfigurations() throws BulkUserProvisionException {
 
+        sanitizeAndPopulateConfigs(getPropertiesMap(loadConfigProperties()), BulkUserProvisionDataHolder.getConfigs());
+    }
+
+    /**
+     * Build the configurations of a job. Configs which are not given for the job are taken from the bulk user
+     * provision config file.
+     *
+     * @param jobProperties Configs of the job, with the same keys as the config file. Can be null.
+     * @return Configurations of the job.
+     * @throws BulkUserProvisionException If the config file could not be read or a config is invalid.
+     */
+    public static ConfigurationsDTO getJobConfigurations(Properties jobProperties) throws BulkUserProvisionException {
+
+        Properties properties = loadConfigProperties();
+        if (jobProperties != null) {
+            properties.putAll(jobProperties);
+        }
+        ConfigurationsDTO configurationsDTO = new ConfigurationsDTO();
+        sanitizeAndPopulateConfigs(getPropertiesMap(properties), configurationsDTO);
+        return configurationsDTO;
+    }
+
+    private static Properties loadConfigProperties() throws BulkUserProvisionException {
+
         Path path = Constants.BULK_USER_PROVISION_CONFIG_DIR_PATH_FILE;
         if (!Files.exists(path) || !Files.isRegularFile(path)) {
             throw handleClientException(Constants.ErrorMessage.CLIENT_CONFIG_FILE_NOT_FOUND,
                     Constants.BULK_USER_PROVISION);
         }
         Properties properties = new Properties();
-        Map<String, String> propertiesMap = new HashMap<>();
         InputStream inputStream = null;
         try {
             inputStream = new FileInputStream(path.toString());
             properties.load(inputStream);
-
-            // Service configs.
-            propertiesMap.put(Constants.CONFIG_IS_ENABLED, properties.getProperty(Constants.CONFIG_IS_ENABLED));
-            propertiesMap.put(Constants.CONFIG_IS_PRIMARY_USER_STORE,
-                    properties.getProperty(Constants.CONFIG_IS_PRIMARY_USER_STORE));
-            propertiesMap.put(Constants.CONFIG_SECONDARY_USER_STORE_DOMAIN,
-                    properties.getProperty(Constants.CONFIG_SECONDARY_USER_STORE_DOMAIN));
-            propertiesMap.put(Constants.CONFIG_WAITING_TIME_FOR_SECONDARY_USER_STORE_DOMAIN,
-                    properties.getProperty(Constants.CONFIG_WAITING_TIME_FOR_SECONDARY_USER_STORE_DOMAIN));
-            propertiesMap.put(Constants.CONFIG_ROWS_TO_FETCH, properties.getProperty(Constants.CONFIG_ROWS_TO_FETCH));
-            propertiesMap.put(Constants.CONFIG_THREAD_POOL_SIZE,
-                    properties.getProperty(Constants.CONFIG_THREAD_POOL_SIZE));
-
-            // Specific configs.
-            propertiesMap.put(Constants.CONFIG_TENANT_DOMAIN, properties.getProperty(Constants.CONFIG_TENANT_DOMAIN));
-            propertiesMap.put(Constants.CONFIG_USERNAME_FIELD, properties.getProperty(Constants.CONFIG_USERNAME_FIELD));
-            propertiesMap.put(Constants.CONFIG_PASSWORD_FIELD, properties.getProperty(Constants.CONFIG_PASSWORD_FIELD));
-            propertiesMap.put(Constants.CONFIG_ROLE_FIELD_EXIST,
-                    properties.getProperty(Constants.CONFIG_ROLE_FIELD_EXIST));
-            propertiesMap.put(Constants.CONFIG_ROLE_FIELD, properties.getProperty(Constants.CONFIG_ROLE_FIELD));
-            propertiesMap.put(Constants.CONFIG_CLAIMS, properties.getProperty(Constants.CONFIG_CLAIMS));
-
-            sanitizeAndPopulateConfigs(propertiesMap);
         } catch (IOException e) {
             throw handleServerException(Constants.ErrorMessage.SERVER_CONFIG_READING_ERROR,
                     Constants.BULK_USER_PROVISION, e);
@@ -98,12 +99,80 @@ public class Utils {
                 }
             }
         }
+        return properties;
     }
 
-    private static void sanitizeAndPopulateConfigs(Map<String, String> configs)
-            throws BulkUserProvisionClientException {
+    private static Map<String, String> getPropertiesMap(Properties properties) {
 
-        ConfigurationsDTO configurationsDTO = BulkUserProvisionDataHolder.getConfigs();
+        Map<String, String> propertiesMap = new HashMap<>();
+        // Service configs.
+        propertiesMap.put(Constants.CONFIG_IS_ENABLED, properties.getProperty(Constants.CONFIG_IS_ENABLED));
+        propertiesMap.put(Constants.CONFIG_IS_PRIMARY_USER_STORE,
+                properties.getProperty(Constants.CONFIG_IS_PRIMARY_USER_STORE));
+        propertiesMap.put(Constants.CONFIG_SECONDARY_USER_STORE_DOMAIN,
+                properties.getProperty(Constants.CONFIG_SECONDARY_USER_STORE_DOMAIN));
+        propertiesMap.put(Constants.CONFIG_WAITING_TIME_FOR_SECONDARY_USER_STORE_DOMAIN,
+                properties.getProperty(Constants.CONFIG_WAITING_TIME_FOR_SECONDARY_USER_STORE_DOMAIN));
+        propertiesMap.put(Constants.CONFIG_ROWS_TO_FETCH, properties.getProperty(Constants.CONFIG_ROWS_TO_FETCH));
+        propertiesMap.put(Constants.CONFIG_THREAD_POOL_SIZE,
+                properties.getProperty(Constants.CONFIG_THREAD_POOL_SIZE));
+        propertiesMap.put(Constants.CONFIG_BATCH_INSERT_ENABLED,
+                properties.getProperty(Constants.CONFIG_BATCH_INSERT_ENABLED));
+        propertiesMap.put(Constants.CONFIG_CHECKPOINT_ENABLED,
+                properties.getProperty(Constants.CONFIG_CHECKPOINT_ENABLED));
+        propertiesMap.put(Constants.CONFIG_EXISTING_USER_CHECK_ENABLED,
+                properties.getProperty(Constants.CONFIG_EXISTING_USER_CHECK_ENABLED));
+        propertiesMap.put(Constants.CONFIG_EXISTING_USER_ACTION,
+                properties.getProperty(Constants.CONFIG_EXISTING_USER_ACTION));
+        propertiesMap.put(Constants.CONFIG_DUPLICATE_USERNAME_POLICY,
+                properties.getProperty(Constants.CONFIG_DUPLICATE_USERNAME_POLICY));
+        propertiesMap.put(Constants.CONFIG_ADAPTIVE_CONCURRENCY_ENABLED,
+                properties.getProperty(Constants.CONFIG_ADAPTIVE_CONCURRENCY_ENABLED));
+        propertiesMap.put(Constants.CONFIG_ADAPTIVE_CONCURRENCY_MIN_LIMIT,
+                properties.getProperty(Constants.CONFIG_ADAPTIVE_CONCURRENCY_MIN_LIMIT));
+        propertiesMap.put(Constants.CONFIG_ADAPTIVE_CONCURRENCY_TARGET_LATENCY,
+                properties.getProperty(Constants.CONFIG_ADAPTIVE_CONCURRENCY_TARGET_LATENCY));
+        propertiesMap.put(Constants.CONFIG_ADAPTIVE_CONCURRENCY_MAX_ERROR_RATE,
+                properties.getProperty(Constants.CONFIG_ADAPTIVE_CONCURRENCY_MAX_ERROR_RATE));
+        propertiesMap.put(Constants.CONFIG_MAX_USERS_PER_SECOND,
+                properties.getProperty(Constants.CONFIG_MAX_USERS_PER_SECOND));
+        propertiesMap.put(Constants.CONFIG_MAX_USERS_PER_SECOND_BURST,
+                properties.getProperty(Constants.CONFIG_MAX_USERS_PER_SECOND_BURST));
+        propertiesMap.put(Constants.CONFIG_CSV_PARSER, properties.getProperty(Constants.CONFIG_CSV_PARSER));
+        propertiesMap.put(Constants.CONFIG_WATCH_ENABLED, properties.getProperty(Constants.CONFIG_WATCH_ENABLED));
+        propertiesMap.put(Constants.CONFIG_WATCH_FILE_STABLE_TIME,
+                properties.getProperty(Constants.CONFIG_WATCH_FILE_STABLE_TIME));
+        propertiesMap.put(Constants.CONFIG_WATCH_MARKER_FILE_SUFFIX,
+                properties.getProperty(Constants.CONFIG_WATCH_MARKER_FILE_SUFFIX));
+        propertiesMap.put(Constants.CONFIG_FILE_SPLIT_SIZE, properties.getProperty(Constants.CONFIG_FILE_SPLIT_SIZE));
+        propertiesMap.put(Constants.CONFIG_DELTA_SYNC_ENABLED,
+                properties.getProperty(Constants.CONFIG_DELTA_SYNC_ENABLED));
+        propertiesMap.put(Constants.CONFIG_PRE_HASHED_PASSWORDS_ENABLED,
+                properties.getProperty(Constants.CONFIG_PRE_HASHED_PASSWORDS_ENABLED));
+        propertiesMap.put(Constants.CONFIG_PIPELINE_ENABLED, properties.getProperty(Constants.CONFIG_PIPELINE_ENABLED));
+        propertiesMap.put(Constants.CONFIG_PIPELINE_CPU_THREADS,
+                properties.getProperty(Constants.CONFIG_PIPELINE_CPU_THREADS));
+        propertiesMap.put(Constants.CONFIG_PIPELINE_QUEUE_SIZE,
+                properties.getProperty(Constants.CONFIG_PIPELINE_QUEUE_SIZE));
+
+        // Specific configs.
+        propertiesMap.put(Constants.CONFIG_TENANT_DOMAIN, properties.getProperty(Constants.CONFIG_TENANT_DOMAIN));
+        propertiesMap.put(Constants.CONFIG_USERNAME_FIELD, properties.getProperty(Constants.CONFIG_USERNAME_FIELD));
+        propertiesMap.put(Constants.CONFIG_PASSWORD_FIELD, properties.getProperty(Constants.CONFIG_PASSWORD_FIELD));
+        propertiesMap.put(Constants.CONFIG_SALT_FIELD, properties.getProperty(Constants.CONFIG_SALT_FIELD));
+        propertiesMap.put(Constants.CONFIG_ROLE_FIELD_EXIST,
+                properties.getProperty(Constants.CONFIG_ROLE_FIELD_EXIST));
+        propertiesMap.put(Constants.CONFIG_ROLE_FIELD, properties.getProperty(Constants.CONFIG_ROLE_FIELD));
+        propertiesMap.put(Constants.CONFIG_ROLE_SEPARATOR,
+                properties.getProperty(Constants.CONFIG_ROLE_SEPARATOR));
+        propertiesMap.put(Constants.CONFIG_ROLE_BATCH_SIZE,
+                properties.getProperty(Constants.CONFIG_ROLE_BATCH_SIZE));
+        propertiesMap.put(Constants.CONFIG_CLAIMS, properties.getProperty(Constants.CONFIG_CLAIMS));
+        return propertiesMap;
+    }
+
+    private static void sanitizeAndPopulateConfigs(Map<String, String> configs, ConfigurationsDTO configurationsDTO)
+            throws BulkUserProvisionClientException {
 
         // Check Bulk user provision is enabled.
         boolean isEnabled = Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_IS_ENABLED)));
@@ -129,6 +198,21 @@ public class Utils {
             }
         }
 
+        // Multiple roles of a user are separated by the role separator in the role field.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_ROLE_SEPARATOR))) {
+            configurationsDTO.setRoleSeparator(Constants.DEFAULT_ROLE_SEPARATOR);
+        } else {
+            configurationsDTO.setRoleSeparator(StringUtils.trim(configs.get(Constants.CONFIG_ROLE_SEPARATOR)));
+        }
+
+        // Check the number of users to assign to a role at once is configured if not use default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_ROLE_BATCH_SIZE))) {
+            configurationsDTO.setRoleBatchSize(Constants.DEFAULT_ROLE_BATCH_SIZE);
+        } else {
+            int roleBatchSize = Integer.parseInt(StringUtils.trim(configs.get(Constants.CONFIG_ROLE_BATCH_SIZE)));
+            configurationsDTO.setRoleBatchSize(roleBatchSize);
+        }
+
         // If not using primary user store and secondary user store is not configured throw an error.
         if (!isPrimaryUserStore && StringUtils.isBlank(configs.get(Constants.CONFIG_SECONDARY_USER_STORE_DOMAIN))) {
             throw handleClientException(Constants.ErrorMessage.CLIENT_USER_STORE_CONFIGURATIONS_ERROR,
@@ -144,7 +228,7 @@ public class Utils {
         } else {
             int timeWaitForSecondaryUserStore = Integer.parseInt(
                     StringUtils.trim(configs.get(Constants.CONFIG_WAITING_TIME_FOR_SECONDARY_USER_STORE_DOMAIN)));
-            configurationsDTO.setNoOfRowsFetch(timeWaitForSecondaryUserStore);
+            configurationsDTO.setWaitingTimeForSecondaryUserStore(timeWaitForSecondaryUserStore);
         }
 
         // Check tenant domain is set if not use default carbon.super tenant domain
@@ -152,7 +236,7 @@ public class Utils {
             configurationsDTO.setTenantDomain(Constants.DEFAULT_TENANT_DOMAIN);
         } else {
             String tenantDomain = StringUtils.trim(configs.get(Constants.CONFIG_TENANT_DOMAIN));
-            configurationsDTO.setSecondaryUserStoreDomain(tenantDomain);
+            configurationsDTO.setTenantDomain(tenantDomain);
         }
 
         // Check rows fetch is configured if not use default row values to fetch.
@@ -171,6 +255,210 @@ public class Utils {
             configurationsDTO.setThreadPoolSize(threadPoolSize);
         }
 
+        // Check whether users should be written to the user store database in batches.
+        boolean isBatchInsertEnabled =
+                Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_BATCH_INSERT_ENABLED)));
+        configurationsDTO.setBatchInsertEnabled(isBatchInsertEnabled);
+
+        // Check whether the progress should be recorded to resume after a restart. Enabled by default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_CHECKPOINT_ENABLED))) {
+            configurationsDTO.setCheckpointEnabled(true);
+        } else {
+            configurationsDTO.setCheckpointEnabled(
+                    Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_CHECKPOINT_ENABLED))));
+        }
+
+        // Check whether the existing users should be detected before adding users.
+        boolean isExistingUserCheckEnabled =
+                Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_EXISTING_USER_CHECK_ENABLED)));
+        configurationsDTO.setExistingUserCheckEnabled(isExistingUserCheckEnabled);
+
+        // Check the action for existing users is configured if not use default action.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_EXISTING_USER_ACTION))) {
+            configurationsDTO.setExistingUserAction(Constants.DEFAULT_EXISTING_USER_ACTION);
+        } else {
+            String existingUserAction = StringUtils.trim(configs.get(Constants.CONFIG_EXISTING_USER_ACTION));
+            if (!Constants.EXISTING_USER_ACTION_SKIP.equalsIgnoreCase(existingUserAction) &&
+                    !Constants.EXISTING_USER_ACTION_UPDATE.equalsIgnoreCase(existingUserAction) &&
+                    !Constants.EXISTING_USER_ACTION_UPSERT.equalsIgnoreCase(existingUserAction)) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_EXISTING_USER_ACTION);
+            }
+            if (Constants.EXISTING_USER_ACTION_UPSERT.equalsIgnoreCase(existingUserAction) &&
+                    !isExistingUserCheckEnabled) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_EXISTING_USER_ACTION + ", as the existing user check is not enabled");
+            }
+            configurationsDTO.setExistingUserAction(existingUserAction.toUpperCase(Locale.ENGLISH));
+        }
+
+        // Check the policy for duplicated usernames is configured if not use default policy.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_DUPLICATE_USERNAME_POLICY))) {
+            configurationsDTO.setDuplicateUsernamePolicy(Constants.DEFAULT_DUPLICATE_USERNAME_POLICY);
+        } else {
+            String duplicateUsernamePolicy = StringUtils.trim(configs.get(Constants.CONFIG_DUPLICATE_USERNAME_POLICY))
+                    .toUpperCase(Locale.ENGLISH);
+            if (!Constants.DUPLICATE_USERNAME_POLICY_NONE.equals(duplicateUsernamePolicy) &&
+                    !Constants.DUPLICATE_USERNAME_POLICY_FIRST_WINS.equals(duplicateUsernamePolicy) &&
+                    !Constants.DUPLICATE_USERNAME_POLICY_LAST_WINS.equals(duplicateUsernamePolicy)) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_DUPLICATE_USERNAME_POLICY);
+            }
+            configurationsDTO.setDuplicateUsernamePolicy(duplicateUsernamePolicy);
+        }
+
+        // Check whether the concurrent user store writes should adapt to the write latency.
+        boolean isAdaptiveConcurrencyEnabled =
+                Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_ADAPTIVE_CONCURRENCY_ENABLED)));
+        configurationsDTO.setAdaptiveConcurrencyEnabled(isAdaptiveConcurrencyEnabled);
+
+        // Check the minimum concurrent user store writes is configured if not use default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_ADAPTIVE_CONCURRENCY_MIN_LIMIT))) {
+            configurationsDTO.setAdaptiveConcurrencyMinLimit(Constants.DEFAULT_ADAPTIVE_CONCURRENCY_MIN_LIMIT);
+        } else {
+            int minLimit = Integer.parseInt(StringUtils.trim(
+                    configs.get(Constants.CONFIG_ADAPTIVE_CONCURRENCY_MIN_LIMIT)));
+            configurationsDTO.setAdaptiveConcurrencyMinLimit(minLimit);
+        }
+
+        // Check the target p95 write latency in milliseconds is configured if not use default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_ADAPTIVE_CONCURRENCY_TARGET_LATENCY))) {
+            configurationsDTO.setAdaptiveConcurrencyTargetLatency(
+                    Constants.DEFAULT_ADAPTIVE_CONCURRENCY_TARGET_LATENCY);
+        } else {
+            int targetLatency = Integer.parseInt(StringUtils.trim(
+                    configs.get(Constants.CONFIG_ADAPTIVE_CONCURRENCY_TARGET_LATENCY)));
+            configurationsDTO.setAdaptiveConcurrencyTargetLatency(targetLatency);
+        }
+
+        // Check the maximum error rate of the writes is configured if not use default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_ADAPTIVE_CONCURRENCY_MAX_ERROR_RATE))) {
+            configurationsDTO.setAdaptiveConcurrencyMaxErrorRate(
+                    Constants.DEFAULT_ADAPTIVE_CONCURRENCY_MAX_ERROR_RATE);
+        } else {
+            double maxErrorRate = Double.parseDouble(StringUtils.trim(
+                    configs.get(Constants.CONFIG_ADAPTIVE_CONCURRENCY_MAX_ERROR_RATE)));
+            if (maxErrorRate < 0 || maxErrorRate > 1) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_ADAPTIVE_CONCURRENCY_MAX_ERROR_RATE);
+            }
+            configurationsDTO.setAdaptiveConcurrencyMaxErrorRate(maxErrorRate);
+        }
+
+        // Check the maximum users provisioned per second is configured if not use default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_MAX_USERS_PER_SECOND))) {
+            configurationsDTO.setMaxUsersPerSecond(Constants.DEFAULT_MAX_USERS_PER_SECOND);
+        } else {
+            double maxUsersPerSecond = Double.parseDouble(StringUtils.trim(
+                    configs.get(Constants.CONFIG_MAX_USERS_PER_SECOND)));
+            if (maxUsersPerSecond < 0) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_MAX_USERS_PER_SECOND);
+            }
+            configurationsDTO.setMaxUsersPerSecond(maxUsersPerSecond);
+        }
+
+        // Check the burst of the users provisioned per second is configured if not allow a second of users.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_MAX_USERS_PER_SECOND_BURST))) {
+            configurationsDTO.setMaxUsersPerSecondBurst(
+                    (int) Math.max(1, Math.ceil(configurationsDTO.getMaxUsersPerSecond())));
+        } else {
+            int burst = Integer.parseInt(StringUtils.trim(configs.get(Constants.CONFIG_MAX_USERS_PER_SECOND_BURST)));
+            if (burst < 1) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_MAX_USERS_PER_SECOND_BURST);
+            }
+            configurationsDTO.setMaxUsersPerSecondBurst(burst);
+        }
+
+        // Check the CSV parser is configured if not use the NIO record reader.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_CSV_PARSER))) {
+            configurationsDTO.setCsvParser(Constants.CSV_PARSER_NIO);
+        } else {
+            String csvParser = StringUtils.trim(configs.get(Constants.CONFIG_CSV_PARSER)).toUpperCase(Locale.ENGLISH);
+            if (!Constants.CSV_PARSER_NIO.equals(csvParser) && !Constants.CSV_PARSER_OPENCSV.equals(csvParser)) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_CSV_PARSER);
+            }
+            configurationsDTO.setCsvParser(csvParser);
+        }
+
+        // Check whether the CSV folder is watched for new files.
+        boolean isWatchEnabled = Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_WATCH_ENABLED)));
+        configurationsDTO.setWatchEnabled(isWatchEnabled);
+
+        // Check the time a new file must keep its size is configured if not use default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_WATCH_FILE_STABLE_TIME))) {
+            configurationsDTO.setWatchFileStableTime(Constants.DEFAULT_WATCH_FILE_STABLE_TIME);
+        } else {
+            long stableTime = Long.parseLong(StringUtils.trim(configs.get(Constants.CONFIG_WATCH_FILE_STABLE_TIME)));
+            if (stableTime < 0) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_WATCH_FILE_STABLE_TIME);
+            }
+            configurationsDTO.setWatchFileStableTime(stableTime);
+        }
+
+        // Check the marker file suffix is configured, if not the files are ready once their size is stable.
+        if (StringUtils.isNotBlank(configs.get(Constants.CONFIG_WATCH_MARKER_FILE_SUFFIX))) {
+            configurationsDTO.setWatchMarkerFileSuffix(
+                    StringUtils.trim(configs.get(Constants.CONFIG_WATCH_MARKER_FILE_SUFFIX)));
+        }
+
+        // Check whether the rows unchanged since the last completed job are skipped.
+        boolean isDeltaSyncEnabled =
+                Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_DELTA_SYNC_ENABLED)));
+        configurationsDTO.setDeltaSyncEnabled(isDeltaSyncEnabled);
+
+        // Check the file split size is configured if not use default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_FILE_SPLIT_SIZE))) {
+            configurationsDTO.setFileSplitSize(Constants.DEFAULT_FILE_SPLIT_SIZE);
+        } else {
+            int fileSplitSize = Integer.parseInt(StringUtils.trim(configs.get(Constants.CONFIG_FILE_SPLIT_SIZE)));
+            if (fileSplitSize < 0) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_FILE_SPLIT_SIZE);
+            }
+            configurationsDTO.setFileSplitSize(fileSplitSize);
+        }
+
+        // Check whether the CSV files have password hashes instead of passwords, which can only be batch inserted.
+        boolean isPreHashedPasswordsEnabled =
+                Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_PRE_HASHED_PASSWORDS_ENABLED)));
+        if (isPreHashedPasswordsEnabled && !configurationsDTO.isBatchInsertEnabled()) {
+            throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                    Constants.CONFIG_PRE_HASHED_PASSWORDS_ENABLED + ", as batch insert is not enabled");
+        }
+        configurationsDTO.setPreHashedPasswordsEnabled(isPreHashedPasswordsEnabled);
+
+        // Check whether the chunks should go through the staged provisioning pipeline.
+        // Only in batch insert mode, as otherwise the user store hashes the passwords while adding the users.
+        boolean isPipelineEnabled =
+                Boolean.parseBoolean(StringUtils.trim(configs.get(Constants.CONFIG_PIPELINE_ENABLED)));
+        if (isPipelineEnabled && !configurationsDTO.isBatchInsertEnabled()) {
+            throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                    Constants.CONFIG_PIPELINE_ENABLED + ", as batch insert is not enabled");
+        }
+        configurationsDTO.setPipelineEnabled(isPipelineEnabled);
+
+        // Check the threads of the CPU bound stages are configured if not use one per available processor.
+        if (StringUtils.isNotBlank(configs.get(Constants.CONFIG_PIPELINE_CPU_THREADS))) {
+            int cpuThreads = Integer.parseInt(StringUtils.trim(configs.get(Constants.CONFIG_PIPELINE_CPU_THREADS)));
+            configurationsDTO.setPipelineCpuThreads(cpuThreads);
+        }
+
+        // Check the queue size of the pipeline stages is configured if not use default.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_PIPELINE_QUEUE_SIZE))) {
+            configurationsDTO.setPipelineQueueSize(Constants.DEFAULT_PIPELINE_QUEUE_SIZE);
+        } else {
+            int queueSize = Integer.parseInt(StringUtils.trim(configs.get(Constants.CONFIG_PIPELINE_QUEUE_SIZE)));
+            if (queueSize < 1) {
+                throw handleClientException(Constants.ErrorMessage.CLIENT_INVALID_CONFIG,
+                        Constants.CONFIG_PIPELINE_QUEUE_SIZE);
+            }
+            configurationsDTO.setPipelineQueueSize(queueSize);
+        }
+
         // Check username field is configured if not use default username field.
         if (StringUtils.isBlank(configs.get(Constants.CONFIG_USERNAME_FIELD))) {
             configurationsDTO.setUsernameField(Constants.DEFAULT_USERNAME_FIELD);
@@ -181,12 +469,20 @@ public class Utils {
 
         // Check password field is configured if not use default password field.
         if (StringUtils.isBlank(configs.get(Constants.CONFIG_PASSWORD_FIELD))) {
-            configurationsDTO.setUsernameField(Constants.DEFAULT_PASSWORD_FIELD);
+            configurationsDTO.setPasswordField(Constants.DEFAULT_PASSWORD_FIELD);
         } else {
             String passwordField = StringUtils.trim(configs.get(Constants.CONFIG_PASSWORD_FIELD));
             configurationsDTO.setPasswordField(passwordField);
         }
 
+        // Check salt field is configured if not use default salt field.
+        if (StringUtils.isBlank(configs.get(Constants.CONFIG_SALT_FIELD))) {
+            configurationsDTO.setSaltField(Constants.DEFAULT_SALT_FIELD);
+        } else {
+            String saltField = StringUtils.trim(configs.get(Constants.CONFIG_SALT_FIELD));
+            configurationsDTO.setSaltField(saltField);
+        }
+
         // Get claims.
         if (StringUtils.isBlank(configs.get(Constants.CONFIG_CLAIMS))) {
             configurationsDTO.setClaims(null);
@@ -199,7 +495,7 @@ public class Utils {
                 // 0 - claim mapping column ,1 - claimURI.
                 claimsMap.put(claimSplit[0], claimSplit[1]);
             }
-            BulkUserProvisionDataHolder.getConfigs().setClaims(claimsMap);
+            configurationsDTO.setClaims(claimsMap);
         }
     }
 
@@ -217,13 +513,14 @@ public class Utils {
     }
 
     // Get user-store manager.
-    public static UserStoreManager getUserStoreManager() throws BulkUserProvisionServerException {
+    public static UserStoreManager getUserStoreManager(ConfigurationsDTO configs)
+            throws BulkUserProvisionServerException {
 
         long time = System.currentTimeMillis();
         UserStoreManager userStoreManager = null;
         boolean timeOut = false; // This is to check time limit reached while checking secondary user store.
         try {
-            if (BulkUserProvisionDataHolder.getConfigs().isPrimaryUserStore()) {
+            if (configs.isPrimaryUserStore()) {
                 log.info(String.format("%s Trying to find primary user store.", Constants.BULK_USER_PROVISION));
                 userStoreManager = BulkUserProvisionDataHolder.getInstance().getRealmService().getBootstrapRealm()
                         .getUserStoreManager();
@@ -238,23 +535,19 @@ public class Utils {
             } else {
                 log.info(String.format("%s Waiting until secondary user store is found.",
                         Constants.BULK_USER_PROVISION));
-                // Try to fetch secondary user store manager.
-                while (userStoreManager == null) {
-                    userStoreManager = BulkUserProvisionDataHolder.getInstance().getRealmService().getBootstrapRealm()
-                            .getUserStoreManager().getSecondaryUserStoreManager(
-                                    BulkUserProvisionDataHolder.getConfigs()
-                                            .getSecondaryUserStoreDomain());
-
-                    if (System.currentTimeMillis() > time + BulkUserProvisionDataHolder.getConfigs()
-                            .getWaitingTimeForSecondaryUserStore()) {
-                        log.error(String.format(
-                                "%s Prerequisites were not satisfied.Secondary user store was not found." +
-                                        "[Reason could be that the given user store domain is wrong." +
-                                        "Check whether it is matching]. Allocated time exceeded. Task aborted.",
-                                Constants.BULK_USER_PROVISION_LOG_PREFIX));
-                        timeOut = true;
-                        break;
-                    }
+                UserStoreWaiter userStoreWaiter = new UserStoreWaiter(
+                        BulkUserProvisionDataHolder.getInstance().getRealmService(),
+                        Constants.SECONDARY_USER_STORE_POLL_INITIAL_INTERVAL,
+                        Constants.SECONDARY_USER_STORE_POLL_MAX_INTERVAL);
+                userStoreManager = userStoreWaiter.waitForSecondaryUserStore(configs.getSecondaryUserStoreDomain(),
+                        configs.getWaitingTimeForSecondaryUserStore());
+                if (userStoreManager == null) {
+                    log.error(String.format(
+                            "%s Prerequisites were not satisfied.Secondary user store was not found." +
+                                    "[Reason could be that the given user store domain is wrong." +
+                                    "Check whether it is matching]. Allocated time exceeded. Task aborted.",
+                            Constants.BULK_USER_PROVISION_LOG_PREFIX));
+                    timeOut = true;
                 }
             }
             if (!timeOut) {
@@ -266,6 +559,11 @@ public class Utils {
                     Constants.BULK_USER_PROVISION_LOG_PREFIX), e);
             throw handleServerException(Constants.ErrorMessage.SERVER_USER_STORE_FIND_ERROR,
                     Constants.BULK_USER_PROVISION, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info(String.format("%s Stopped waiting for the secondary user store.",
+                    Constants.BULK_USER_PROVISION_LOG_PREFIX));
+            return null;
         }
         log.info(String.format("%s Time taken to fetch user store:%s", Constants.BULK_USER_PROVISION_LOG_PREFIX,
                 (System.currentTimeMillis() - time)));
@@ -273,11 +571,11 @@ public class Utils {
     }
 
     // Get CSV files in directory
-    public static File[] getCsvFiles() throws BulkUserProvisionClientException {
+    public static File[] getCsvFiles(Path csvDirPath) throws BulkUserProvisionClientException {
 
         long time = System.currentTimeMillis();
-        File fileDir = new File(String.valueOf(Constants.BULK_USER_PROVISION_CSV_DIR_PATH));
-        File[] files = fileDir.listFiles((fileTemp, name) -> name.toLowerCase().endsWith(Constants.FILE_TYPE_CSV));
+        File fileDir = csvDirPath.toFile();
+        File[] files = fileDir.listFiles((fileTemp, name) -> isCsvFile(name));
         if (files == null) {
             log.error(String.format("%s Invalid folder path %s",
                     Constants.BULK_USER_PROVISION_LOG_PREFIX, fileDir.getAbsolutePath()));
@@ -296,6 +594,40 @@ public class Utils {
         return files;
     }
 
+    /**
+     * @param fileName Name of a file.
+     * @return True if the file is a CSV file or a gzip compressed CSV file.
+     */
+    public static boolean isCsvFile(String fileName) {
+
+        String name = fileName.toLowerCase(Locale.ENGLISH);
+        return name.endsWith(Constants.FILE_TYPE_CSV) || name.endsWith(Constants.FILE_TYPE_CSV_GZ);
+    }
+
+    /**
+     * @param fileName Name of a file.
+     * @return True if the file is a gzip compressed CSV file.
+     */
+    public static boolean isCompressedCsvFile(String fileName) {
+
+        return fileName.toLowerCase(Locale.ENGLISH).endsWith(Constants.FILE_TYPE_CSV_GZ);
+    }
+
+    /**
+     * @param fileName Name of a CSV file or a gzip compressed CSV file.
+     * @return Name of the file without the CSV extensions.
+     */
+    public static String getCsvBaseName(String fileName) {
+
+        String name = fileName.toLowerCase(Locale.ENGLISH);
+        if (name.endsWith(Constants.FILE_TYPE_CSV_GZ)) {
+            return fileName.substring(0, fileName.length() - Constants.FILE_TYPE_CSV_GZ.length());
+        } else if (name.endsWith(Constants.FILE_TYPE_CSV)) {
+            return fileName.substring(0, fileName.length() - Constants.FILE_TYPE_CSV.length());
+        }
+        return fileName;
+    }
+
     public static BulkUserProvisionClientException handleClientException(Constants.ErrorMessage error, String data) {
 
         String description;
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of splitting a CSV file into byte ranges which start at records.
+ */
+public class CsvRangeScanTest {
+
+    // Quoted line breaks, doubled quotes, carriage returns and an empty line, without a line break at the end.
+    private static final String CSV = "username,address\n" +
+            "alice,\"1 Main St\nSpringfield\"\r\n" +
+            "bob,\"say \"\"hi\"\"\r\nagain\"\r" +
+            "\n" +
+            "carol,\"\"\"\n\"\"\"\n" +
+            "dave,plain";
+
+    private Path csvFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+
+        csvFile = Files.createTempFile("bulk-user-provision", ".csv");
+        Files.write(csvFile, CSV.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Test
+    public void testScanCountsLineBreaksForBothQuoteStates() throws IOException {
+
+        String content = "a\"b\nc\"\nd\n";
+        Files.write(csvFile, content.getBytes(StandardCharsets.UTF_8));
+
+        CsvRangeScan rangeScan = CsvRangeScan.scan(csvFile, 0, content.length());
+
+        assertFalse(rangeScan.isOddQuotes());
+        assertEquals(rangeScan.getNoOfRecordEnds(false), 2);
+        assertEquals(rangeScan.getFirstRecordEnd(false), content.indexOf("d"));
+        assertEquals(rangeScan.getLastRecordEnd(false), content.length());
+        assertEquals(rangeScan.getNoOfRecordEnds(true), 1);
+        assertEquals(rangeScan.getFirstRecordEnd(true), content.indexOf("c"));
+    }
+
+    @Test
+    public void testCarriageReturnAtEndOfRange() throws IOException {
+
+        String content = "a\r\nb\rc";
+        Files.write(csvFile, content.getBytes(StandardCharsets.UTF_8));
+
+        // The carriage return before a line feed in the next range doesn't end a record.
+        assertEquals(CsvRangeScan.scan(csvFile, 0, 2).getNoOfRecordEnds(false), 0);
+        assertEquals(CsvRangeScan.scan(csvFile, 2, 5).getFirstRecordEnd(false), 3);
+        // A carriage return on its own ends a record.
+        assertEquals(CsvRangeScan.scan(csvFile, 3, 5).getFirstRecordEnd(false), 5);
+    }
+
+    @Test
+    public void testSplitAtEveryOffset() throws IOException {
+
+        List<Long> recordStarts = new ArrayList<>();
+        long dataStart;
+        try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile)) {
+            csvReader.skipNext();
+            dataStart = csvReader.getOffset();
+            recordStarts.add(dataStart);
+            while (csvReader.skipNext()) {
+                recordStarts.add(csvReader.getOffset());
+            }
+        }
+        long noOfRows = recordStarts.size() - 1;
+        long fileSize = Files.size(csvFile);
+
+        for (long split = dataStart + 1; split < fileSize; split++) {
+            List<CsvRangeScan> rangeScans = new ArrayList<>();
+            rangeScans.add(CsvRangeScan.scan(csvFile, dataStart, split));
+            rangeScans.add(CsvRangeScan.scan(csvFile, split, fileSize));
+            List<long[]> recordRanges = CsvRangeScan.getRecordRanges(rangeScans, fileSize);
+
+            long[] last = recordRanges.get(recordRanges.size() - 1);
+            assertEquals(last[0], fileSize);
+            assertEquals(last[1], noOfRows, "Rows with a split at " + split);
+            for (long[] recordRange : recordRanges.subList(0, recordRanges.size() - 1)) {
+                assertTrue(recordRange[0] < fileSize);
+                assertEquals((long) recordStarts.get((int) recordRange[1]), recordRange[0],
+                        "Start of row " + recordRange[1] + " with a split at " + split);
+            }
+            assertEquals(readRanges(recordRanges), noOfRows, "Rows read with a split at " + split);
+        }
+    }
+
+    @Test
+    public void testRangeWithoutRecordStart() throws IOException {
+
+        String content = "h\nshort\n\"a long quoted value spanning the middle range\"\nlast\n";
+        Files.write(csvFile, content.getBytes(StandardCharsets.UTF_8));
+        long dataStart = content.indexOf("short");
+        long quoteStart = content.indexOf("\"a long");
+
+        List<CsvRangeScan> rangeScans = new ArrayList<>();
+        rangeScans.add(CsvRangeScan.scan(csvFile, dataStart, quoteStart + 2));
+        rangeScans.add(CsvRangeScan.scan(csvFile, quoteStart + 2, quoteStart + 20));
+        rangeScans.add(CsvRangeScan.scan(csvFile, quoteStart + 20, content.length()));
+        List<long[]> recordRanges = CsvRangeScan.getRecordRanges(rangeScans, content.length());
+
+        // The middle range is inside the quoted record, so it is read with the first range.
+        assertEquals(recordRanges.size(), 3);
+        assertRecordRange(recordRanges.get(0), dataStart, 0);
+        assertRecordRange(recordRanges.get(1), content.indexOf("last"), 2);
+        assertRecordRange(recordRanges.get(2), content.length(), 3);
+    }
+
+    @Test
+    public void testSplitInParallel() throws IOException, InterruptedException {
+
+        long dataStart = CSV.indexOf("alice");
+        long fileSize = Files.size(csvFile);
+        long noOfRows = CsvRangeScan.getRecordRanges(
+                Collections.singletonList(CsvRangeScan.scan(csvFile, dataStart, fileSize)), fileSize).get(1)[1];
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (long splitSize = 1; splitSize <= fileSize; splitSize++) {
+                List<long[]> recordRanges = CsvRangeScan.split(csvFile, dataStart, splitSize, executor);
+
+                assertRecordRange(recordRanges.get(0), dataStart, 0);
+                assertRecordRange(recordRanges.get(recordRanges.size() - 1), fileSize, noOfRows);
+                assertEquals(readRanges(recordRanges), noOfRows, "Rows read with a split size of " + splitSize);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertRecordRange(long[] recordRange, long offset, long row) {
+
+        assertEquals(recordRange[0], offset);
+        assertEquals(recordRange[1], row);
+    }
+
+    private long readRanges(List<long[]> recordRanges) throws IOException {
+
+        long noOfRows = 0;
+        for (int i = 0; i + 1 < recordRanges.size(); i++) {
+            try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile, recordRanges.get(i)[0],
+                    recordRanges.get(i + 1)[0])) {
+                while (csvReader.skipNext()) {
+                    noOfRows++;
+                }
+            }
+            assertEquals(noOfRows, recordRanges.get(i + 1)[1]);
+        }
+        return noOfRows;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of the NIO CSV parser.
+ */
+public class CsvRecordReaderTest {
+
+    private Path csvFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+
+        csvFile = Files.createTempFile("bulk-user-provision", ".csv");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Test
+    public void testReadPlainRecords() throws IOException {
+
+        List<String[]> records = readAll("username,password\nalice,pass1\nbob,pass2\n");
+
+        assertEquals(records.size(), 3);
+        assertEquals(records.get(0), new String[]{"username", "password"});
+        assertEquals(records.get(1), new String[]{"alice", "pass1"});
+        assertEquals(records.get(2), new String[]{"bob", "pass2"});
+    }
+
+    @Test
+    public void testReadQuotedFields() throws IOException {
+
+        List<String[]> records = readAll("\"a,b\",\"say \"\"hi\"\"\",\"\"\n\"line\nbreak\",\"cr\r\nlf\",x\n");
+
+        assertEquals(records.size(), 2);
+        assertEquals(records.get(0), new String[]{"a,b", "say \"hi\"", ""});
+        assertEquals(records.get(1), new String[]{"line\nbreak", "cr\r\nlf", "x"});
+    }
+
+    @Test
+    public void testReadLineBreaks() throws IOException {
+
+        List<String[]> records = readAll("a,b\r\nc,d\re,f\n\ng,h");
+
+        // The empty line is skipped.
+        assertEquals(records.size(), 4);
+        assertEquals(records.get(0), new String[]{"a", "b"});
+        assertEquals(records.get(1), new String[]{"c", "d"});
+        assertEquals(records.get(2), new String[]{"e", "f"});
+        // The last record doesn't need a line break.
+        assertEquals(records.get(3), new String[]{"g", "h"});
+    }
+
+    @Test
+    public void testCountEmptyLines() throws IOException {
+
+        write("h\n\r\n\"\"\n\nlast\n\n");
+
+        try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile)) {
+            assertTrue(csvReader.skipNext());
+            // An empty quoted field is not an empty line.
+            assertEquals(csvReader.readNext(), new String[]{""});
+            assertEquals(csvReader.getRecordsRead(), 3);
+            assertEquals(csvReader.readNext(), new String[]{"last"});
+            assertEquals(csvReader.getRecordsRead(), 5);
+            assertNull(csvReader.readNext());
+            assertEquals(csvReader.getRecordsRead(), 6);
+        }
+        try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile)) {
+            assertTrue(csvReader.skipNext());
+            // Skipping doesn't pass over the empty lines.
+            assertTrue(csvReader.skipNext());
+            assertEquals(csvReader.getRecordsRead(), 2);
+            assertEquals(csvReader.readNext(), new String[]{""});
+        }
+    }
+
+    @Test
+    public void testSkipByteOrderMark() throws IOException {
+
+        Files.write(csvFile, concat(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF},
+                "username,ñame\nälice,x\n".getBytes(StandardCharsets.UTF_8)));
+
+        try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile)) {
+            assertEquals(csvReader.readNext(), new String[]{"username", "ñame"});
+            assertEquals(csvReader.readNext(), new String[]{"älice", "x"});
+            assertNull(csvReader.readNext());
+        }
+    }
+
+    @Test
+    public void testProjection() throws IOException {
+
+        write("a,b,c\n1,\"2\",3\n");
+
+        try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile)) {
+            csvReader.setProjection(new boolean[]{false, true});
+            assertEquals(csvReader.readNext(), new String[]{null, "b", null});
+            assertEquals(csvReader.readNext(), new String[]{null, "2", null});
+        }
+    }
+
+    @Test
+    public void testSkipNext() throws IOException {
+
+        write("h\n\"skipped\nrecord\"\nread\n");
+
+        try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile)) {
+            assertTrue(csvReader.skipNext());
+            assertTrue(csvReader.skipNext());
+            assertEquals(csvReader.readNext(), new String[]{"read"});
+            assertFalse(csvReader.skipNext());
+            assertEquals(csvReader.getRecordsRead(), 3);
+        }
+    }
+
+    @Test
+    public void testReadRange() throws IOException {
+
+        String content = "h1,h2\nalice,1\n\"bob\nsmith\",2\ncarol,3\n";
+        write(content);
+        long start = content.indexOf("\"bob");
+        long end = content.indexOf("carol");
+
+        try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile, start, end)) {
+            assertEquals(csvReader.getOffset(), start);
+            assertEquals(csvReader.readNext(), new String[]{"bob\nsmith", "2"});
+            assertEquals(csvReader.getOffset(), end);
+            assertNull(csvReader.readNext());
+        }
+    }
+
+    @Test
+    public void testRecordLargerThanBuffer() throws IOException {
+
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append("value").append(i);
+        }
+        write("a,b\n" + value + ",\"" + value + "\"\nc,d\n");
+
+        try (CsvRecordReader csvReader = new CsvRecordReader(Files.newByteChannel(csvFile), 64)) {
+            assertEquals(csvReader.readNext(), new String[]{"a", "b"});
+            assertEquals(csvReader.readNext(), new String[]{value.toString(), value.toString()});
+            assertEquals(csvReader.readNext(), new String[]{"c", "d"});
+            assertNull(csvReader.readNext());
+        }
+    }
+
+    private List<String[]> readAll(String content) throws IOException {
+
+        write(content);
+        List<String[]> records = new ArrayList<>();
+        try (CsvRecordReader csvReader = CsvRecordReader.open(csvFile)) {
+            String[] record;
+            while ((record = csvReader.readNext()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private void write(String content) throws IOException {
+
+        Files.write(csvFile, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
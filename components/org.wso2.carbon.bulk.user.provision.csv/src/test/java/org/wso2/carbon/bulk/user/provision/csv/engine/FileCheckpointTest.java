@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of advancing the checkpoint of a file as its chunks complete out of order.
+ */
+public class FileCheckpointTest {
+
+    private static final String FILE_KEY = "users.csv|1024|0";
+
+    private Path journalDir;
+    private Path journalPath;
+    private ProgressJournal journal;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        journalDir = Files.createTempDirectory("bulk-user-provision");
+        journalPath = journalDir.resolve("journal");
+        journal = ProgressJournal.open(journalPath);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+
+        journal.close();
+        Files.deleteIfExists(journalPath);
+        Files.deleteIfExists(journalDir);
+    }
+
+    @Test
+    public void testAdvanceOnlyOverCompletedChunks() {
+
+        FileCheckpoint checkpoint = new FileCheckpoint(journal, FILE_KEY);
+
+        checkpoint.onChunkCompleted(100, 200);
+        checkpoint.onChunkCompleted(300, 400);
+        assertEquals(checkpoint.getCommittedRows(), 0);
+        assertEquals(journal.getCommittedRows(FILE_KEY), 0);
+
+        checkpoint.onChunkCompleted(0, 100);
+        assertEquals(checkpoint.getCommittedRows(), 200);
+        assertEquals(journal.getCommittedRows(FILE_KEY), 200);
+
+        checkpoint.onChunkCompleted(200, 300);
+        assertEquals(checkpoint.getCommittedRows(), 400);
+        assertEquals(journal.getCommittedRows(FILE_KEY), 400);
+    }
+
+    @Test
+    public void testMarkCompletedOnceAllRowsAreCommitted() {
+
+        FileCheckpoint checkpoint = new FileCheckpoint(journal, FILE_KEY);
+
+        checkpoint.onChunkCompleted(0, 100);
+        checkpoint.onReadCompleted(150);
+        assertFalse(journal.isCompleted(FILE_KEY));
+
+        checkpoint.onChunkCompleted(100, 150);
+        assertTrue(journal.isCompleted(FILE_KEY));
+    }
+
+    @Test
+    public void testMarkCompletedWhenReadCompletesLast() {
+
+        FileCheckpoint checkpoint = new FileCheckpoint(journal, FILE_KEY);
+
+        checkpoint.onChunkCompleted(0, 100);
+        assertFalse(journal.isCompleted(FILE_KEY));
+
+        checkpoint.onReadCompleted(100);
+        assertTrue(journal.isCompleted(FILE_KEY));
+    }
+
+    @Test
+    public void testResumeFromJournal() throws Exception {
+
+        FileCheckpoint checkpoint = new FileCheckpoint(journal, FILE_KEY);
+        checkpoint.onChunkCompleted(0, 100);
+        checkpoint.onChunkCompleted(200, 300);
+        journal.close();
+
+        journal = ProgressJournal.open(journalPath);
+        FileCheckpoint resumedCheckpoint = new FileCheckpoint(journal, FILE_KEY);
+        assertEquals(resumedCheckpoint.getCommittedRows(), 100);
+
+        // The chunks of the resumed job continue from the committed rows.
+        resumedCheckpoint.onChunkCompleted(100, 200);
+        assertEquals(resumedCheckpoint.getCommittedRows(), 200);
+    }
+
+    @Test
+    public void testIgnorePartlyWrittenLastLine() throws Exception {
+
+        journal.close();
+        // The last entry of 300 rows was cut to 3 by a crash before its line break was written.
+        Files.write(journalPath, (FILE_KEY + "\t200\n" + FILE_KEY + "\t3").getBytes(StandardCharsets.UTF_8));
+
+        journal = ProgressJournal.open(journalPath);
+        assertEquals(journal.getCommittedRows(FILE_KEY), 200);
+
+        // The next entry starts on a line of its own.
+        journal.commit(FILE_KEY, 400);
+        journal.close();
+        journal = ProgressJournal.open(journalPath);
+        assertEquals(journal.getCommittedRows(FILE_KEY), 400);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of the limit of the users provisioned per second.
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void testNoLimit() {
+
+        RateLimiter rateLimiter = new RateLimiter(0, 1);
+        long startTime = System.nanoTime();
+        rateLimiter.acquire(1000000);
+
+        assertEquals(rateLimiter.getUsersPerSecond(), 0, 0);
+        assertEquals(rateLimiter.getBurst(), 0);
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testBurstIsNotDelayed() {
+
+        RateLimiter rateLimiter = new RateLimiter(1, 10);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire(1);
+        }
+
+        // Ten users at one user per second would take nine seconds without the burst.
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testRateIsLimited() {
+
+        RateLimiter rateLimiter = new RateLimiter(1000, 1);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire(20);
+        }
+
+        // 200 users at 1000 users per second, less the first reservation which doesn't wait.
+        assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(180));
+    }
+
+    @Test
+    public void testZeroUsersAreNotCharged() {
+
+        RateLimiter rateLimiter = new RateLimiter(1, 1);
+        rateLimiter.acquire(1);
+        long startTime = System.nanoTime();
+        rateLimiter.acquire(0);
+
+        assertTrue(System.nanoTime() - startTime < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.engine;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of the index of the usernames used to detect duplicated rows.
+ */
+public class UsernameIndexTest {
+
+    @Test
+    public void testKeepFirstRow() {
+
+        UsernameIndex usernameIndex = new UsernameIndex(16, false);
+
+        assertFalse(usernameIndex.put("alice", 0, 1, false));
+        assertTrue(usernameIndex.put("alice", 1, 5, false));
+
+        assertTrue(usernameIndex.isRecordedRow("alice", 0, 1));
+        assertFalse(usernameIndex.isRecordedRow("alice", 1, 5));
+        assertEquals(usernameIndex.size(), 1);
+    }
+
+    @Test
+    public void testKeepLatestRow() {
+
+        UsernameIndex usernameIndex = new UsernameIndex(16, false);
+
+        assertFalse(usernameIndex.put("alice", 0, 1, true));
+        assertTrue(usernameIndex.put("alice", 1, 5, true));
+
+        assertFalse(usernameIndex.isRecordedRow("alice", 0, 1));
+        assertTrue(usernameIndex.isRecordedRow("alice", 1, 5));
+    }
+
+    @Test
+    public void testCaseInsensitiveUsernames() {
+
+        UsernameIndex usernameIndex = new UsernameIndex(16, true);
+
+        assertFalse(usernameIndex.put("Alice", 0, 1, false));
+        assertTrue(usernameIndex.put(" alice ", 0, 2, false));
+        assertTrue(usernameIndex.isRecordedRow("ALICE", 0, 1));
+    }
+
+    @Test
+    public void testCaseSensitiveUsernames() {
+
+        UsernameIndex usernameIndex = new UsernameIndex(16, false);
+
+        assertFalse(usernameIndex.put("Alice", 0, 1, false));
+        assertFalse(usernameIndex.put("alice", 0, 2, false));
+        assertTrue(usernameIndex.put(" alice ", 0, 3, false));
+        assertTrue(usernameIndex.isRecordedRow("Alice", 0, 1));
+        assertTrue(usernameIndex.isRecordedRow("alice", 0, 2));
+        assertEquals(usernameIndex.size(), 2);
+    }
+
+    @Test
+    public void testMergeKeepsFirstRow() {
+
+        UsernameIndex usernameIndex = new UsernameIndex(16, false);
+        usernameIndex.put("alice", 0, 1, false);
+        UsernameIndex nextPart = new UsernameIndex(16, false);
+        nextPart.put("alice", 0, 7, false);
+        nextPart.put("bob", 0, 8, false);
+
+        assertEquals(usernameIndex.merge(nextPart, false), 1);
+        assertTrue(usernameIndex.isRecordedRow("alice", 0, 1));
+        assertTrue(usernameIndex.isRecordedRow("bob", 0, 8));
+        assertEquals(usernameIndex.size(), 2);
+    }
+
+    @Test
+    public void testMergeKeepsLatestRow() {
+
+        UsernameIndex usernameIndex = new UsernameIndex(16, false);
+        usernameIndex.put("alice", 0, 1, true);
+        UsernameIndex nextPart = new UsernameIndex(16, false);
+        for (int i = 0; i < 100; i++) {
+            nextPart.put("user" + i, 1, i, true);
+        }
+        nextPart.put("alice", 1, 100, true);
+
+        assertEquals(usernameIndex.merge(nextPart, true), 1);
+        assertTrue(usernameIndex.isRecordedRow("alice", 1, 100));
+        assertTrue(usernameIndex.isRecordedRow("user42", 1, 42));
+        assertEquals(usernameIndex.size(), 101);
+    }
+
+    @Test
+    public void testUnknownUsernameIsRecordedRow() {
+
+        UsernameIndex usernameIndex = new UsernameIndex(16, false);
+        usernameIndex.put("alice", 0, 1, false);
+
+        assertTrue(usernameIndex.isRecordedRow("bob", 3, 7));
+    }
+
+    @Test
+    public void testGrowBeyondInitialCapacity() {
+
+        UsernameIndex usernameIndex = new UsernameIndex(16, false);
+        int noOfUsers = 100000;
+        for (int i = 0; i < noOfUsers; i++) {
+            assertFalse(usernameIndex.put("user" + i, i % UsernameIndex.MAX_FILES, i, false));
+        }
+
+        assertEquals(usernameIndex.size(), noOfUsers);
+        for (int i = 0; i < noOfUsers; i++) {
+            assertTrue(usernameIndex.put("user" + i, 0, 0, false));
+            assertTrue(usernameIndex.isRecordedRow("user" + i, i % UsernameIndex.MAX_FILES, i));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.metrics;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of the histogram of the user store latencies.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMean(), 0, 0);
+        assertEquals(histogram.getPercentile(99), 0, 0);
+    }
+
+    @Test
+    public void testPercentilesWithinBucketError() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(histogram.getCount(), 1000);
+        assertEquals(histogram.getMean(), 500.5, 0.001);
+        assertEquals(histogram.getMax(), 1000, 0);
+        assertWithinBucketError(histogram.getPercentile(50), 500);
+        assertWithinBucketError(histogram.getPercentile(99), 990);
+        assertEquals(histogram.getPercentile(100), 1000, 0);
+    }
+
+    @Test
+    public void testReset() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        histogram.reset();
+
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMax(), 0, 0);
+        assertEquals(histogram.getPercentile(50), 0, 0);
+    }
+
+    private static void assertWithinBucketError(double actual, double expected) {
+
+        assertTrue(actual >= expected && actual <= expected * 1.25, actual + " is not within 25% above " + expected);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021, WSO2 Inc. (http://www.wso2.com).
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.bulk.user.provision.csv.util;
+
+import org.testng.annotations.Test;
+import org.wso2.carbon.user.core.UserRealm;
+import org.wso2.carbon.user.core.UserStoreManager;
+import org.wso2.carbon.user.core.service.RealmService;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests of waiting for a secondary user store against a stub realm, which registers the user store after a number of
+ * polls.
+ */
+public class UserStoreWaiterTest {
+
+    private static final String DOMAIN = "SECONDARY";
+
+    @Test
+    public void testUserStoreAlreadyRegistered() throws Exception {
+
+        UserStoreManager secondaryUserStoreManager = stub(UserStoreManager.class, (method, args) -> null);
+        AtomicInteger polls = new AtomicInteger();
+        UserStoreWaiter userStoreWaiter = new UserStoreWaiter(getRealmService(secondaryUserStoreManager, 1, polls),
+                10, 100);
+
+        assertSame(userStoreWaiter.waitForSecondaryUserStore(DOMAIN, 1000), secondaryUserStoreManager);
+        assertEquals(polls.get(), 1);
+    }
+
+    @Test
+    public void testUserStoreRegisteredWhileWaiting() throws Exception {
+
+        UserStoreManager secondaryUserStoreManager = stub(UserStoreManager.class, (method, args) -> null);
+        AtomicInteger polls = new AtomicInteger();
+        UserStoreWaiter userStoreWaiter = new UserStoreWaiter(getRealmService(secondaryUserStoreManager, 4, polls),
+                1, 5);
+
+        assertSame(userStoreWaiter.waitForSecondaryUserStore(DOMAIN, 10000), secondaryUserStoreManager);
+        assertEquals(polls.get(), 4);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+
+        AtomicInteger polls = new AtomicInteger();
+        UserStoreWaiter userStoreWaiter = new UserStoreWaiter(getRealmService(null, Integer.MAX_VALUE, polls),
+                1, 20);
+        long startTime = System.currentTimeMillis();
+
+        assertNull(userStoreWaiter.waitForSecondaryUserStore(DOMAIN, 200));
+        assertTrue(System.currentTimeMillis() - startTime >= 200);
+        // The polls back off instead of spinning until the timeout.
+        assertTrue(polls.get() < 40, polls.get() + " polls");
+    }
+
+    /**
+     * Realm whose primary user store returns the secondary user store from the given poll on.
+     */
+    private static RealmService getRealmService(UserStoreManager secondaryUserStoreManager, int registeredAtPoll,
+                                                AtomicInteger polls) {
+
+        UserStoreManager primaryUserStoreManager = stub(UserStoreManager.class, (method, args) -> {
+            if ("getSecondaryUserStoreManager".equals(method) && DOMAIN.equals(args[0])) {
+                return polls.incrementAndGet() >= registeredAtPoll ? secondaryUserStoreManager : null;
+            }
+            return null;
+        });
+        UserRealm userRealm = stub(UserRealm.class,
+                (method, args) -> "getUserStoreManager".equals(method) ? primaryUserStoreManager : null);
+        return stub(RealmService.class, (method, args) -> "getBootstrapRealm".equals(method) ? userRealm : null);
+    }
+
+    private static <T> T stub(Class<T> type, StubMethod stubMethod) {
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> stubMethod.invoke(method.getName(), args)));
+    }
+
+    private interface StubMethod {
+
+        Object invoke(String method, Object[] args);
+    }
+}